@@ -0,0 +1,72 @@
+package roman.andrusiak.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import roman.andrusiak.EdgeIndex;
+import roman.andrusiak.EdgeKernels;
+import roman.andrusiak.EdgeMetric;
+import roman.andrusiak.ExactEdgeMetric;
+import roman.andrusiak.GradientEdgeMetric;
+import roman.andrusiak.SsdEdgeMetric;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the vector edge kernels on every metric.
+ * The fork enables the incubator module, so "vector" measures the SIMD kernels when the CPU supports them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class EdgeMetricBenchmark {
+    @Param({"4", "16"})
+    public int grid;
+
+    @Param({"exact", "ssd", "gradient"})
+    public String metric;
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private EdgeIndex edges;
+    private EdgeMetric edgeMetric;
+
+    @Setup
+    public void setUp() {
+        edges = new EdgeIndex(SyntheticImages.shuffledPuzzles(SyntheticImages.create(1280, 1024, 1), grid, grid, 2));
+        EdgeKernels selected = "scalar".equals(kernels) ? EdgeKernels.SCALAR : EdgeKernels.DEFAULT;
+        switch (metric) {
+            case "exact":
+                edgeMetric = new ExactEdgeMetric(selected);
+                break;
+            case "ssd":
+                edgeMetric = new SsdEdgeMetric(selected);
+                break;
+            default:
+                edgeMetric = new GradientEdgeMetric(selected);
+                break;
+        }
+    }
+
+    @Benchmark
+    public float horizontal() {
+        return edgeMetric.dissimilarity(edges, 0, EdgeIndex.RIGHT, 1, EdgeIndex.LEFT);
+    }
+
+    @Benchmark
+    public float vertical() {
+        return edgeMetric.dissimilarity(edges, 0, EdgeIndex.BOTTOM, 1, EdgeIndex.TOP);
+    }
+}
@@ -0,0 +1,60 @@
+package roman.andrusiak.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import roman.andrusiak.ImageManager;
+import roman.andrusiak.Resizer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding and resizing of a source image file by
+ * {@link ImageManager#resizeImage(String, int, int, Resizer.Mode)} in every {@link Resizer.Mode}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResizeBenchmark {
+    @Param({"640x512", "1280x1024", "4000x3000"})
+    public String resolution;
+
+    @Param({"nearest", "box", "bilinear", "lanczos"})
+    public String mode;
+
+    private File source;
+
+    @Setup
+    public void setUp() throws IOException {
+        int[] size = SyntheticImages.parseResolution(resolution);
+        source = File.createTempFile("resize-benchmark", ".png");
+        ImageIO.write(SyntheticImages.create(size[0], size[1], 1), "png", source);
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+    }
+
+    @Benchmark
+    public BufferedImage resizeImage() throws IOException {
+        return ImageManager.resizeImage(source.getPath(), ImageManager.WIDTH, ImageManager.HEIGHT,
+                Resizer.Mode.parse(mode, Resizer.Mode.BOX));
+    }
+}
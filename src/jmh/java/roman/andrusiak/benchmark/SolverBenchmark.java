@@ -0,0 +1,73 @@
+package roman.andrusiak.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import roman.andrusiak.ImageManager;
+import roman.andrusiak.Puzzle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the edge comparisons and the solver on shuffled pieces.
+ * Larger grids can be added on the command line, e.g. -p grid=64.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+    @Param({"4", "16", "32"})
+    public int grid;
+
+    @Param({"1280x1024"})
+    public String resolution;
+
+    private Puzzle[] puzzles;
+
+    @Setup
+    public void setUp() {
+        int[] size = SyntheticImages.parseResolution(resolution);
+        puzzles = SyntheticImages.shuffledPuzzles(SyntheticImages.create(size[0], size[1], 1), grid, grid, 2);
+    }
+
+    @Benchmark
+    public int compareLeftWithRight() {
+        return ImageManager.compareLeftWithRight(puzzles[0], puzzles[1]);
+    }
+
+    @Benchmark
+    public int compareRightWithLeft() {
+        return ImageManager.compareRightWithLeft(puzzles[0], puzzles[1]);
+    }
+
+    @Benchmark
+    public int compareBottomWithTop() {
+        return ImageManager.compareBottomWithTop(puzzles[0], puzzles[1]);
+    }
+
+    @Benchmark
+    public int compareTopWithBottom() {
+        return ImageManager.compareTopWithBottom(puzzles[0], puzzles[1]);
+    }
+
+    @Benchmark
+    public Puzzle[] fillCompares() {
+        return ImageManager.fillCompares(puzzles);
+    }
+
+    @Benchmark
+    public Puzzle[] sortPuzzle() {
+        return ImageManager.sortPuzzle(puzzles, grid, grid);
+    }
+}
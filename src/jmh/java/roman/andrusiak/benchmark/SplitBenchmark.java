@@ -0,0 +1,76 @@
+package roman.andrusiak.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import roman.andrusiak.ImageManager;
+import roman.andrusiak.Puzzle;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting an image into pieces, assembling the pieces back and comparing the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitBenchmark {
+    @Param({"4", "16", "32"})
+    public int grid;
+
+    @Param({"1280x1024", "2560x2048"})
+    public String resolution;
+
+    private BufferedImage image;
+    private Puzzle[] puzzles;
+    private BufferedImage assembled;
+
+    @Setup
+    public void setUp() {
+        int[] size = SyntheticImages.parseResolution(resolution);
+        image = SyntheticImages.create(size[0], size[1], 1);
+        BufferedImage[] pieces = ImageManager.splitImage(image, grid, grid);
+        puzzles = new Puzzle[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            puzzles[i] = new Puzzle(pieces[i]);
+        }
+        assembled = ImageManager.collectImages(puzzles, grid);
+    }
+
+    @Benchmark
+    public BufferedImage[] splitImage() {
+        return ImageManager.splitImage(image, grid, grid);
+    }
+
+    @Benchmark
+    public BufferedImage[] splitImageDetached() {
+        return ImageManager.splitImage(image, grid, grid, true);
+    }
+
+    @Benchmark
+    public BufferedImage collectImages() {
+        return ImageManager.collectImages(puzzles, grid);
+    }
+
+    @Benchmark
+    public boolean compareImages() {
+        return ImageManager.compareImages(assembled, ImageManager.collectImages(puzzles, grid));
+    }
+
+    @Benchmark
+    public boolean compareArrangements() {
+        return ImageManager.compareArrangements(puzzles, puzzles.clone());
+    }
+}
@@ -0,0 +1,85 @@
+package roman.andrusiak.benchmark;
+
+import roman.andrusiak.ImageManager;
+import roman.andrusiak.Puzzle;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * The SyntheticImages class generates deterministic test images, so the benchmarks run offline
+ * and every run sees the same pixels.
+ * <p>
+ * The images are sums of slow sine waves quantized to 32 levels per channel. Neighboring pixels are
+ * often exactly equal, as in a resized photo, while distant regions stay distinguishable.
+ */
+public final class SyntheticImages {
+    private SyntheticImages() {
+    }
+
+    /**
+     * Creates a synthetic TYPE_INT_RGB image.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param seed   the seed of the wave frequencies
+     * @return the generated image
+     */
+    public static BufferedImage create(int width, int height, long seed) {
+        Random random = new Random(seed);
+        double[] frequencies = new double[12];
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = 0.002 + random.nextDouble() * 0.03;
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = 0;
+                for (int channel = 0; channel < 3; channel++) {
+                    int f = channel * 4;
+                    double value = Math.sin(x * frequencies[f] + y * frequencies[f + 1])
+                            + Math.cos(x * frequencies[f + 2] - y * frequencies[f + 3] * 1.7);
+                    rgb = (rgb << 8) | (((int) (64 * (value + 2))) & 0xF8);
+                }
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Splits an image and shuffles the pieces with a fixed seed.
+     *
+     * @param image the image to split
+     * @param rows  the number of rows of the grid
+     * @param cols  the number of columns of the grid
+     * @param seed  the seed of the shuffle
+     * @return the shuffled puzzle pieces
+     */
+    public static Puzzle[] shuffledPuzzles(BufferedImage image, int rows, int cols, long seed) {
+        BufferedImage[] images = ImageManager.splitImage(image, rows, cols);
+        Random random = new Random(seed);
+        for (int i = images.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            BufferedImage temp = images[i];
+            images[i] = images[j];
+            images[j] = temp;
+        }
+        Puzzle[] puzzles = new Puzzle[images.length];
+        for (int i = 0; i < images.length; i++) {
+            puzzles[i] = new Puzzle(images[i]);
+        }
+        return puzzles;
+    }
+
+    /**
+     * Parses a resolution written as WIDTHxHEIGHT.
+     *
+     * @param resolution the resolution string
+     * @return an array with the width and the height
+     */
+    public static int[] parseResolution(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+}
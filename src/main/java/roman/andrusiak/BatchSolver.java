@@ -0,0 +1,205 @@
+package roman.andrusiak;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BatchSolver class splits, shuffles and solves every image of a directory without a display.
+ * <p>
+ * Decoding runs on an I/O pool, solving on a CPU pool and encoding on an {@link ImageExporter}, so the stages
+ * of different images overlap. The CPU pool is a ForkJoinPool, so the {@link CompatibilityMatrix} of every
+ * image is scored on its bounded workers instead of on the common pool. A semaphore bounds the number of images
+ * in flight, which keeps the directory scan from running ahead of the workers. Every image produces one JSON
+ * line on standard output.
+ * <p>
+ * Usage: {@code java -cp ... roman.andrusiak.BatchSolver <directory> [rows] [cols] [threads] [outputDirectory]}
+ * <p>
+ * With {@code -Dpuzzle.metrics=<file>} the stage {@link Metrics} are written to the file when the run ends.
+ * The assembled images are written by an {@link ImageExporter}; {@code -Dpuzzle.pngLevel=<0-9>} sets its
+ * deflate level. {@code -Dpuzzle.searchMillis=<ms>} sets the budget of the {@link IslandSolver} search that
+ * improves an ambiguous greedy placement; 0 keeps the greedy placement, so the runs are reproducible.
+ */
+public class BatchSolver {
+    private final int rows;
+    private final int cols;
+    private final File outputDirectory;
+    private final ExecutorService ioPool;
+    private final ExecutorService cpuPool;
+    private final ImageExporter exporter;
+    private final Semaphore inFlight;
+    private final PrintStream out;
+
+    /**
+     * Creates a batch solver.
+     *
+     * @param rows            the number of rows of every puzzle
+     * @param cols            the number of columns of every puzzle
+     * @param threads         the number of solver threads
+     * @param outputDirectory the directory for the assembled images, or null to skip encoding
+     * @param out             the stream that receives the result lines
+     */
+    public BatchSolver(int rows, int cols, int threads, File outputDirectory, PrintStream out) {
+        this.rows = rows;
+        this.cols = cols;
+        this.outputDirectory = outputDirectory;
+        this.ioPool = Executors.newFixedThreadPool(Math.max(2, threads / 2));
+        this.cpuPool = new ForkJoinPool(threads);
+        this.exporter = outputDirectory == null ? null
+                : new ImageExporter(Math.max(2, threads / 2), Integer.getInteger("puzzle.pngLevel", ImageExporter.DEFAULT));
+        this.inFlight = new Semaphore(threads * 2);
+        this.out = out;
+    }
+
+    /**
+     * Processes all regular files of a directory and waits until every result line is written.
+     *
+     * @param directory the directory with the source images
+     * @throws InterruptedException if the calling thread is interrupted while waiting for a free slot
+     */
+    public void run(File directory) throws InterruptedException {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+        CompletableFuture<?>[] jobs = new CompletableFuture<?>[files.length];
+        for (int i = 0; i < files.length; i++) {
+            inFlight.acquire();
+            jobs[i] = process(files[i]);
+        }
+        CompletableFuture.allOf(jobs).exceptionally(error -> null).join();
+        ioPool.shutdown();
+        cpuPool.shutdown();
+        if (exporter != null) {
+            exporter.close();
+        }
+        ioPool.awaitTermination(1, TimeUnit.MINUTES);
+        cpuPool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private CompletableFuture<Result> process(File file) {
+        Result result = new Result(file);
+        return CompletableFuture.supplyAsync(() -> decode(result), ioPool)
+                .thenApplyAsync(image -> solve(result, image), cpuPool)
+                .thenCompose(solved -> encode(result, solved))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (cause instanceof UncheckedIOException) {
+                            cause = cause.getCause();
+                        }
+                        result.error = cause.toString();
+                    }
+                    synchronized (out) {
+                        out.println(result.toJson());
+                    }
+                    inFlight.release();
+                });
+    }
+
+    private BufferedImage decode(Result result) {
+        long start = System.nanoTime();
+        try {
+            BufferedImage image = ImageManager.resizeImage(result.file.getPath());
+            result.decodeNanos = System.nanoTime() - start;
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BufferedImage solve(Result result, BufferedImage image) {
+        long start = System.nanoTime();
+        Board board = new Board(ImageManager.splitImage(image, rows, cols), rows, cols);
+        board.shuffle(new Random(result.file.getName().hashCode()));
+        long split = System.nanoTime();
+        result.splitNanos = split - start;
+
+        Board sorted = ImageManager.sortBoard(board, EdgeMetric.GRADIENT);
+        for (int i = 0; i < sorted.size(); i++) {
+            if (sorted.isCorrect(i)) {
+                result.correct++;
+            }
+        }
+        result.pieces = sorted.size();
+        result.solveNanos = System.nanoTime() - split;
+        return outputDirectory == null ? null : ImageManager.collectImages(sorted.puzzles(), cols);
+    }
+
+    private CompletableFuture<Result> encode(Result result, BufferedImage solved) {
+        if (solved == null) {
+            return CompletableFuture.completedFuture(result);
+        }
+        long start = System.nanoTime();
+        return exporter.write(solved, new File(outputDirectory, result.file.getName() + ".solved.png"))
+                .thenApply(file -> {
+                    result.encodeNanos = System.nanoTime() - start;
+                    return result;
+                });
+    }
+
+    private class Result {
+        private final File file;
+        private int pieces;
+        private int correct;
+        private long decodeNanos;
+        private long splitNanos;
+        private long solveNanos;
+        private long encodeNanos;
+        private String error;
+
+        Result(File file) {
+            this.file = file;
+        }
+
+        String toJson() {
+            return "{\"file\":" + Metrics.quote(file.getPath())
+                    + ",\"rows\":" + rows
+                    + ",\"cols\":" + cols
+                    + ",\"pieces\":" + pieces
+                    + ",\"correct\":" + correct
+                    + ",\"solved\":" + (error == null && pieces > 0 && correct == pieces)
+                    + ",\"decodeMs\":" + millis(decodeNanos)
+                    + ",\"splitMs\":" + millis(splitNanos)
+                    + ",\"solveMs\":" + millis(solveNanos)
+                    + ",\"encodeMs\":" + millis(encodeNanos)
+                    + ",\"error\":" + (error == null ? "null" : Metrics.quote(error))
+                    + "}";
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchSolver <directory> [rows] [cols] [threads] [outputDirectory]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        Metrics.dumpOnExit();
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : ImageManager.ROWS;
+        int cols = args.length > 2 ? Integer.parseInt(args[2]) : ImageManager.COLS;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        File outputDirectory = args.length > 4 ? new File(args[4]) : null;
+        if (outputDirectory != null) {
+            outputDirectory.mkdirs();
+        }
+        new BatchSolver(rows, cols, threads, outputDirectory, System.out).run(new File(args[0]));
+    }
+}
@@ -0,0 +1,244 @@
+package roman.andrusiak;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The Board class holds the pieces of one puzzle in a struct-of-arrays layout.
+ * <p>
+ * Every piece is a tile id: an index into the table of tile images and original positions. The neighbor
+ * links are int arrays per side, indexed by tile id and using the {@link EdgeIndex} side constants, and the
+ * arrangement on the board is a permutation from slot to tile id. A board therefore costs a few primitive
+ * arrays instead of one object graph per piece, and {@link #copy()} is a handful of array clones, which makes
+ * boards cheap to snapshot for search. {@link Puzzle} objects are thin views of one tile of a board; they are
+ * created on first use and cached, so there is at most one view per tile.
+ * <p>
+ * A board may be read by several threads once it is built, e.g. by {@link SolveService} or {@link BatchSolver}.
+ * The views it creates lazily are published through an atomic array for that reason. The content hashes are
+ * a plain long array: a thread that does not yet see the hash of another thread computes the same value again.
+ */
+public class Board {
+    public static final int NONE = -1;
+    private static final long UNHASHED = Long.MIN_VALUE;
+
+    private final int rows;
+    private final int cols;
+    private final BufferedImage[] images;
+    private final int[] labels;
+    private final int[][] neighbors = new int[4][];
+    private final int[] permutation;
+    private final long[] contentHashes;
+    private final AtomicReferenceArray<Puzzle> views;
+
+    /**
+     * Creates a solved board: tile i is the piece of slot i and knows that position.
+     *
+     * @param images the images of the pieces in their solved order, row by row
+     * @param rows   the number of rows of the puzzle
+     * @param cols   the number of columns of the puzzle
+     */
+    public Board(BufferedImage[] images, int rows, int cols) {
+        this(images, identity(images.length), rows, cols);
+    }
+
+    /**
+     * Creates a board whose tiles lie in slot order.
+     *
+     * @param images the images of the tiles
+     * @param labels the original position of every tile, or -1 where it is unknown
+     * @param rows   the number of rows of the puzzle
+     * @param cols   the number of columns of the puzzle
+     */
+    public Board(BufferedImage[] images, int[] labels, int rows, int cols) {
+        if (images.length != rows * cols || labels.length != images.length) {
+            throw new IllegalArgumentException("Expected " + rows * cols + " pieces, got " + images.length);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.images = images.clone();
+        this.labels = labels.clone();
+        for (int side = 0; side < 4; side++) {
+            neighbors[side] = new int[images.length];
+            Arrays.fill(neighbors[side], NONE);
+        }
+        this.permutation = identity(images.length);
+        this.contentHashes = new long[images.length];
+        Arrays.fill(contentHashes, UNHASHED);
+        this.views = new AtomicReferenceArray<>(images.length);
+    }
+
+    private Board(Board board) {
+        this.rows = board.rows;
+        this.cols = board.cols;
+        this.images = board.images.clone();
+        this.labels = board.labels;
+        for (int side = 0; side < 4; side++) {
+            neighbors[side] = board.neighbors[side].clone();
+        }
+        this.permutation = board.permutation.clone();
+        this.contentHashes = board.contentHashes.clone();
+        this.views = new AtomicReferenceArray<>(images.length);
+    }
+
+    private static int[] identity(int length) {
+        int[] identity = new int[length];
+        for (int i = 0; i < length; i++) {
+            identity[i] = i;
+        }
+        return identity;
+    }
+
+    /**
+     * Creates an independent copy of the board. The images are shared, everything else is copied.
+     *
+     * @return the copy
+     */
+    public Board copy() {
+        return new Board(this);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int size() {
+        return permutation.length;
+    }
+
+    /**
+     * Returns the tile in a slot of the board.
+     *
+     * @param slot the slot, row by row
+     * @return the tile id
+     */
+    public int tileAt(int slot) {
+        return permutation[slot];
+    }
+
+    /**
+     * Returns a copy of the arrangement, mapping every slot to its tile id.
+     *
+     * @return the permutation
+     */
+    public int[] getPermutation() {
+        return permutation.clone();
+    }
+
+    /**
+     * Rearranges the board, e.g. with the placement found by {@link PuzzleSolver}.
+     *
+     * @param permutation the tile id of every slot
+     */
+    public void setPermutation(int[] permutation) {
+        if (permutation.length != this.permutation.length) {
+            throw new IllegalArgumentException("Expected " + this.permutation.length + " slots, got " + permutation.length);
+        }
+        System.arraycopy(permutation, 0, this.permutation, 0, permutation.length);
+    }
+
+    public void swap(int firstSlot, int secondSlot) {
+        int temp = permutation[firstSlot];
+        permutation[firstSlot] = permutation[secondSlot];
+        permutation[secondSlot] = temp;
+    }
+
+    /**
+     * Shuffles the arrangement with the Fisher-Yates algorithm.
+     *
+     * @param random the source of randomness
+     */
+    public void shuffle(Random random) {
+        for (int i = permutation.length - 1; i > 0; i--) {
+            swap(i, random.nextInt(i + 1));
+        }
+    }
+
+    /**
+     * Tells whether the tile in a slot belongs there.
+     *
+     * @param slot the slot
+     * @return true if the original position of the tile is the slot
+     */
+    public boolean isCorrect(int slot) {
+        return labels[permutation[slot]] == slot;
+    }
+
+    public BufferedImage getImage(int tile) {
+        return images[tile];
+    }
+
+    public void setImage(int tile, BufferedImage image) {
+        images[tile] = image;
+        contentHashes[tile] = UNHASHED;
+    }
+
+    public int getOriginalIndex(int tile) {
+        return labels[tile];
+    }
+
+    /**
+     * Returns a hash of the pixels of a tile. The hash is computed on the first call and kept
+     * until the image is replaced; threads that ask at the same time may both compute it, and a tile whose
+     * hash equals the marker of an unhashed tile is hashed on every call.
+     *
+     * @param tile the tile id
+     * @return the content hash of the tile image
+     */
+    public long getContentHash(int tile) {
+        long hash = contentHashes[tile];
+        if (hash == UNHASHED) {
+            hash = IntRaster.of(images[tile]).contentHash();
+            contentHashes[tile] = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the neighbor linked to a side of a tile.
+     *
+     * @param tile the tile id
+     * @param side one of the {@link EdgeIndex} side constants
+     * @return the tile id of the neighbor, or {@link #NONE}
+     */
+    public int getNeighbor(int tile, int side) {
+        return neighbors[side][tile];
+    }
+
+    public void setNeighbor(int tile, int side, int neighbor) {
+        neighbors[side][tile] = neighbor;
+    }
+
+    /**
+     * Returns the view of a tile.
+     *
+     * @param tile the tile id
+     * @return the Puzzle backed by this tile of the board
+     */
+    public Puzzle puzzle(int tile) {
+        Puzzle view = views.get(tile);
+        if (view == null) {
+            views.compareAndSet(tile, null, new Puzzle(this, tile));
+            view = views.get(tile);
+        }
+        return view;
+    }
+
+    /**
+     * Returns the views of all tiles in slot order.
+     *
+     * @return the pieces as they lie on the board
+     */
+    public Puzzle[] puzzles() {
+        Puzzle[] puzzles = new Puzzle[permutation.length];
+        for (int slot = 0; slot < puzzles.length; slot++) {
+            puzzles[slot] = puzzle(permutation[slot]);
+        }
+        return puzzles;
+    }
+}
@@ -0,0 +1,241 @@
+package roman.andrusiak;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The BoardCanvas class paints a {@link Board} as one component instead of one button per piece.
+ * <p>
+ * All tiles are drawn once into an atlas image, ordered by tile id. Painting copies every slot from the
+ * atlas, so a swap only changes the permutation of the board and repaints the two slot rectangles; no
+ * icons are created and nothing is laid out again. The atlas is kept in a VolatileImage when the graphics
+ * configuration supports it, so the copies are accelerated; it is restored from the BufferedImage atlas
+ * whenever its contents are lost. Clicks are hit-tested against the slot grid and reported to the
+ * registered {@link SlotListener}s.
+ */
+public class BoardCanvas extends JComponent {
+    private static final long serialVersionUID = 1L;
+    private static final int SELECTION_WIDTH = 3;
+    private static final int GAP = 2 * SELECTION_WIDTH;
+
+    /**
+     * The listener interface for clicks on board slots.
+     */
+    public interface SlotListener {
+        /**
+         * Called on the event dispatch thread when a slot is clicked.
+         *
+         * @param slot the index of the clicked slot, row by row
+         */
+        void slotClicked(int slot);
+    }
+
+    private final Board board;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final BufferedImage atlas;
+    private VolatileImage acceleratedAtlas;
+    private final boolean[] selected;
+    private final List<SlotListener> listeners = new ArrayList<>();
+
+    /**
+     * Creates a canvas for a board. The images of the board must not change while the canvas shows it.
+     *
+     * @param board the board to show; swaps should go through {@link #swap(int, int)}
+     */
+    public BoardCanvas(Board board) {
+        this.board = board;
+        int width = 1;
+        int height = 1;
+        for (int tile = 0; tile < board.size(); tile++) {
+            width = Math.max(width, board.getImage(tile).getWidth());
+            height = Math.max(height, board.getImage(tile).getHeight());
+        }
+        this.tileWidth = width;
+        this.tileHeight = height;
+        this.atlas = createAtlas();
+        this.selected = new boolean[board.size()];
+        setOpaque(true);
+        setPreferredSize(new Dimension(board.getCols() * (tileWidth + GAP) + GAP,
+                board.getRows() * (tileHeight + GAP) + GAP));
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int slot = slotAt(e.getX(), e.getY());
+                if (slot != -1) {
+                    for (SlotListener listener : listeners) {
+                        listener.slotClicked(slot);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Draws every tile into its cell of the atlas; the atlas has the same grid as the board.
+     */
+    private BufferedImage createAtlas() {
+        BufferedImage image = new BufferedImage(board.getCols() * tileWidth, board.getRows() * tileHeight,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        for (int tile = 0; tile < board.size(); tile++) {
+            graphics.drawImage(board.getImage(tile), atlasX(tile), atlasY(tile), null);
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    public void addSlotListener(SlotListener listener) {
+        listeners.add(listener);
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * Returns the slot under a point of the component.
+     *
+     * @param x the x coordinate in the component
+     * @param y the y coordinate in the component
+     * @return the index of the slot, or -1 if the point is on a gap or outside the board
+     */
+    public int slotAt(int x, int y) {
+        int col = Math.floorDiv(x - GAP, tileWidth + GAP);
+        int row = Math.floorDiv(y - GAP, tileHeight + GAP);
+        if (col < 0 || col >= board.getCols() || row < 0 || row >= board.getRows()) {
+            return -1;
+        }
+        if (x - GAP - col * (tileWidth + GAP) >= tileWidth || y - GAP - row * (tileHeight + GAP) >= tileHeight) {
+            return -1;
+        }
+        return row * board.getCols() + col;
+    }
+
+    /**
+     * Returns the rectangle a slot is painted in, including the selection frame around it.
+     *
+     * @param slot the index of the slot
+     * @return the bounds of the slot in the component
+     */
+    public Rectangle slotBounds(int slot) {
+        int x = GAP + slot % board.getCols() * (tileWidth + GAP);
+        int y = GAP + slot / board.getCols() * (tileHeight + GAP);
+        return new Rectangle(x - SELECTION_WIDTH, y - SELECTION_WIDTH,
+                tileWidth + 2 * SELECTION_WIDTH, tileHeight + 2 * SELECTION_WIDTH);
+    }
+
+    /**
+     * Marks a slot as selected or not and repaints it.
+     *
+     * @param slot     the index of the slot
+     * @param selected whether the slot is selected
+     */
+    public void setSelected(int slot, boolean selected) {
+        if (this.selected[slot] != selected) {
+            this.selected[slot] = selected;
+            repaint(slotBounds(slot));
+        }
+    }
+
+    public boolean isSelected(int slot) {
+        return selected[slot];
+    }
+
+    /**
+     * Swaps the pieces in two slots of the board and repaints only those two slots.
+     *
+     * @param firstSlot  the first slot
+     * @param secondSlot the second slot
+     */
+    public void swap(int firstSlot, int secondSlot) {
+        board.swap(firstSlot, secondSlot);
+        repaint(slotBounds(firstSlot));
+        repaint(slotBounds(secondSlot));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground() != null ? getBackground() : Color.LIGHT_GRAY);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int cols = board.getCols();
+        int firstCol = Math.max(0, (clip.x - GAP) / (tileWidth + GAP));
+        int lastCol = Math.min(cols - 1, (clip.x + clip.width - GAP) / (tileWidth + GAP));
+        int firstRow = Math.max(0, (clip.y - GAP) / (tileHeight + GAP));
+        int lastRow = Math.min(board.getRows() - 1, (clip.y + clip.height - GAP) / (tileHeight + GAP));
+        do {
+            Image source = acceleratedAtlas();
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    paintSlot(g, source, row * cols + col);
+                }
+            }
+        } while (acceleratedAtlas != null && acceleratedAtlas.contentsLost());
+    }
+
+    private void paintSlot(Graphics g, Image source, int slot) {
+        Rectangle bounds = slotBounds(slot);
+        int x = bounds.x + SELECTION_WIDTH;
+        int y = bounds.y + SELECTION_WIDTH;
+        int tile = board.tileAt(slot);
+        g.drawImage(source, x, y, x + tileWidth, y + tileHeight,
+                atlasX(tile), atlasY(tile), atlasX(tile) + tileWidth, atlasY(tile) + tileHeight, null);
+        if (selected[slot]) {
+            g.setColor(Color.RED);
+            for (int i = 0; i < SELECTION_WIDTH; i++) {
+                g.drawRect(bounds.x + i, bounds.y + i, bounds.width - 1 - 2 * i, bounds.height - 1 - 2 * i);
+            }
+        }
+    }
+
+    /**
+     * Returns the accelerated atlas, creating or restoring it when needed, or the BufferedImage atlas
+     * when no accelerated image is available.
+     */
+    private Image acceleratedAtlas() {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (configuration == null) {
+            return atlas;
+        }
+        int status = acceleratedAtlas == null ? VolatileImage.IMAGE_INCOMPATIBLE : acceleratedAtlas.validate(configuration);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (acceleratedAtlas != null) {
+                acceleratedAtlas.flush();
+            }
+            acceleratedAtlas = configuration.createCompatibleVolatileImage(atlas.getWidth(), atlas.getHeight());
+            if (acceleratedAtlas == null) {
+                return atlas;
+            }
+            acceleratedAtlas.validate(configuration);
+            restoreAtlas();
+        } else if (status == VolatileImage.IMAGE_RESTORED) {
+            restoreAtlas();
+        }
+        return acceleratedAtlas;
+    }
+
+    private void restoreAtlas() {
+        Graphics2D graphics = acceleratedAtlas.createGraphics();
+        graphics.drawImage(atlas, 0, 0, null);
+        graphics.dispose();
+    }
+
+    private int atlasX(int tile) {
+        return tile % board.getCols() * tileWidth;
+    }
+
+    private int atlasY(int tile) {
+        return tile / board.getCols() * tileHeight;
+    }
+}
@@ -0,0 +1,277 @@
+package roman.andrusiak;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The CandidateIndex class picks, for every piece, the few pieces that are likely to fit next to it,
+ * so that only those pairs have to be scored by an {@link EdgeMetric}.
+ * <p>
+ * Every border is turned into a short descriptor: the border extrapolated by half its gradient to the seam
+ * between the pieces, averaged over a few segments per channel. Two borders that belong together estimate
+ * the same seam, so their descriptors are close. The descriptors of the left and top borders are hashed
+ * with random projections: every table projects them onto a random direction and keeps them sorted by
+ * the projection. A right or bottom border collects the borders whose projections lie next to its own in
+ * every table and keeps the k whose descriptors are nearest. This takes O(N log N) time instead of
+ * the O(N²) of scoring all pairs.
+ * <p>
+ * The index is an approximation; {@link #recall(CompatibilityMatrix)} measures how often it keeps the
+ * partner that the exhaustive scoring ranks first.
+ */
+public class CandidateIndex {
+    public static final int DEFAULT_TABLES = 8;
+    public static final int MIN_WINDOW = 32;
+    private static final int SEGMENTS = 8;
+    private static final int DIMENSIONS = 3 * SEGMENTS;
+
+    private final int count;
+    private final int k;
+    private final int[][] horizontal;
+    private final int[][] vertical;
+
+    /**
+     * Builds the candidate lists of all pieces with {@link #DEFAULT_TABLES} tables and a window of
+     * max(4k, {@link #MIN_WINDOW}) borders on each side of the query.
+     *
+     * @param edges the edge index of the pieces
+     * @param k     the number of candidates kept for every border
+     */
+    public CandidateIndex(EdgeIndex edges, int k) {
+        this(edges, k, DEFAULT_TABLES, Math.max(4 * k, MIN_WINDOW), 0);
+    }
+
+    /**
+     * Builds the candidate lists of all pieces.
+     * The recall depends mostly on the window: the k nearest descriptors are found reliably once they are
+     * among the borders collected from the tables.
+     *
+     * @param edges  the edge index of the pieces
+     * @param k      the number of candidates kept for every border
+     * @param tables the number of random projections; more tables raise the recall and the build time
+     * @param window the number of borders collected on each side of the query in every table
+     * @param seed   the seed of the random projections
+     */
+    public CandidateIndex(EdgeIndex edges, int k, int tables, int window, long seed) {
+        this.count = edges.size();
+        this.k = Math.min(k, Math.max(count - 1, 0));
+        Random random = new Random(seed);
+        horizontal = candidates(edges, EdgeIndex.RIGHT, EdgeIndex.LEFT, tables, window, random);
+        vertical = candidates(edges, EdgeIndex.BOTTOM, EdgeIndex.TOP, tables, window, random);
+    }
+
+    /**
+     * Returns the pieces that may fit to the right of a piece, nearest descriptor first.
+     *
+     * @param left the index of the piece on the left
+     * @return the indexes of the candidate pieces on the right
+     */
+    public int[] horizontal(int left) {
+        return horizontal[left];
+    }
+
+    /**
+     * Returns the pieces that may fit below a piece, nearest descriptor first.
+     *
+     * @param upper the index of the upper piece
+     * @return the indexes of the candidate pieces below
+     */
+    public int[] vertical(int upper) {
+        return vertical[upper];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Measures the share of borders whose best partner under the exhaustive scoring is among their candidates.
+     *
+     * @param exhaustive a matrix with the scores of all pairs
+     * @return the recall, from 0 to 1
+     */
+    public double recall(CompatibilityMatrix exhaustive) {
+        long found = 0;
+        for (int i = 0; i < count; i++) {
+            int bestRight = -1;
+            int bestLower = -1;
+            for (int j = 0; j < count; j++) {
+                if (j == i) {
+                    continue;
+                }
+                if (bestRight < 0 || exhaustive.horizontal(i, j) < exhaustive.horizontal(i, bestRight)) {
+                    bestRight = j;
+                }
+                if (bestLower < 0 || exhaustive.vertical(i, j) < exhaustive.vertical(i, bestLower)) {
+                    bestLower = j;
+                }
+            }
+            found += contains(horizontal[i], bestRight) ? 1 : 0;
+            found += contains(vertical[i], bestLower) ? 1 : 0;
+        }
+        return count == 0 ? 1 : found / (2.0 * count);
+    }
+
+    /**
+     * Reports the recall and the timing of the candidate index for one image, for every given k.
+     * Usage: {@code CandidateIndex <image> <rows> <cols> [k...]}; prints one JSON line per k.
+     *
+     * @param args the command line arguments
+     * @throws IOException if the image cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CandidateIndex <image> <rows> <cols> [k...]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        int rows = Integer.parseInt(args[1]);
+        int cols = Integer.parseInt(args[2]);
+        BufferedImage[] images = ImageManager.splitImage(ImageManager.resizeImage(args[0]), rows, cols);
+        Puzzle[] puzzles = new Board(images, rows, cols).puzzles();
+        EdgeIndex edges = new EdgeIndex(puzzles);
+        long start = System.nanoTime();
+        CompatibilityMatrix exhaustive = new CompatibilityMatrix(edges, EdgeMetric.GRADIENT);
+        long exhaustiveNanos = System.nanoTime() - start;
+        int[] ks = args.length > 3 ? new int[args.length - 3] : new int[]{4, 8, 16, 32};
+        for (int a = 3; a < args.length; a++) {
+            ks[a - 3] = Integer.parseInt(args[a]);
+        }
+        for (int k : ks) {
+            start = System.nanoTime();
+            CandidateIndex index = new CandidateIndex(edges, k);
+            long indexNanos = System.nanoTime() - start;
+            new CompatibilityMatrix(edges, EdgeMetric.GRADIENT, index);
+            long prunedNanos = System.nanoTime() - start;
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"pieces\":%d,\"k\":%d,\"tables\":%d,\"recall\":%.4f,\"indexMs\":%.3f,\"prunedMs\":%.3f,\"exhaustiveMs\":%.3f}",
+                    puzzles.length, index.getK(), DEFAULT_TABLES, index.recall(exhaustive),
+                    indexNanos / 1e6, prunedNanos / 1e6, exhaustiveNanos / 1e6));
+        }
+    }
+
+    private static boolean contains(int[] candidates, int piece) {
+        for (int candidate : candidates) {
+            if (candidate == piece) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[][] candidates(EdgeIndex edges, int querySide, int targetSide, int tables, int window,
+                                Random random) {
+        float[][] queries = new float[count][];
+        float[][] targets = new float[count][];
+        for (int i = 0; i < count; i++) {
+            queries[i] = descriptor(edges, i, querySide);
+            targets[i] = descriptor(edges, i, targetSide);
+        }
+        float[][] directions = new float[tables][DIMENSIONS];
+        long[][] sorted = new long[tables][count];
+        for (int t = 0; t < tables; t++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                directions[t][d] = (float) random.nextGaussian();
+            }
+            for (int i = 0; i < count; i++) {
+                sorted[t][i] = (long) sortableBits(dot(directions[t], targets[i])) << 32 | i;
+            }
+            Arrays.sort(sorted[t]);
+        }
+
+        int[][] candidates = new int[count][];
+        int[] seen = new int[count];
+        Arrays.fill(seen, -1);
+        int[] pool = new int[tables * 2 * window];
+        for (int i = 0; i < count; i++) {
+            int size = 0;
+            seen[i] = i;
+            for (int t = 0; t < tables; t++) {
+                long key = (long) sortableBits(dot(directions[t], queries[i])) << 32;
+                int position = Arrays.binarySearch(sorted[t], key);
+                position = position < 0 ? -position - 1 : position;
+                int from = Math.max(0, position - window);
+                int to = Math.min(count, position + window);
+                for (int p = from; p < to; p++) {
+                    int piece = (int) sorted[t][p];
+                    if (seen[piece] != i) {
+                        seen[piece] = i;
+                        pool[size++] = piece;
+                    }
+                }
+            }
+            candidates[i] = nearest(queries[i], targets, pool, size);
+        }
+        return candidates;
+    }
+
+    /**
+     * Keeps the k pieces of the pool whose target descriptors are nearest to the query, nearest first.
+     */
+    private int[] nearest(float[] query, float[][] targets, int[] pool, int size) {
+        long[] ranked = new long[size];
+        for (int p = 0; p < size; p++) {
+            ranked[p] = (long) sortableBits(distance(query, targets[pool[p]])) << 32 | pool[p];
+        }
+        Arrays.sort(ranked);
+        int[] nearest = new int[Math.min(k, size)];
+        for (int p = 0; p < nearest.length; p++) {
+            nearest[p] = (int) ranked[p];
+        }
+        return nearest;
+    }
+
+    /**
+     * Describes a border by the seam it predicts, averaged over {@link #SEGMENTS} segments per channel.
+     */
+    private static float[] descriptor(EdgeIndex edges, int piece, int side) {
+        float[] border = edges.borderChannels(piece, side);
+        float[] inner = edges.innerChannels(piece, side);
+        int length = border.length / 3;
+        float[] descriptor = new float[DIMENSIONS];
+        for (int channel = 0; channel < 3; channel++) {
+            int plane = channel * length;
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                int from = Math.min(segment * length / SEGMENTS, length - 1);
+                int to = Math.max((segment + 1) * length / SEGMENTS, from + 1);
+                float sum = 0;
+                for (int p = plane + from; p < plane + to; p++) {
+                    sum += 1.5f * border[p] - 0.5f * inner[p];
+                }
+                descriptor[channel * SEGMENTS + segment] = sum / (to - from);
+            }
+        }
+        return descriptor;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int d = 0; d < a.length; d++) {
+            sum += a[d] * b[d];
+        }
+        return sum;
+    }
+
+    private static float distance(float[] a, float[] b) {
+        float sum = 0;
+        for (int d = 0; d < a.length; d++) {
+            float difference = a[d] - b[d];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * Maps a float to an int whose signed order is the order of the floats, so it can be packed into a sort key.
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+}
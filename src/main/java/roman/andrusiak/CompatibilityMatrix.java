@@ -0,0 +1,513 @@
+package roman.andrusiak;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CompatibilityMatrix class holds the edge dissimilarity of ordered pairs of puzzle pieces.
+ * It scores the horizontal (i left of j) and vertical (i above j) pairs with an {@link EdgeMetric};
+ * lower values mean a better fit.
+ * <p>
+ * A dense matrix scores every pair and stores the scores in two flat float arrays of N² entries.
+ * A sparse matrix only scores the partners proposed by a {@link CandidateIndex}: every piece keeps the
+ * sorted indexes and the scores of its partners on each side, so it takes N * candidates entries. The pairs
+ * that were not scored all read as one penalty worse than the worst scored pair, and
+ * {@link #partners(int, int)} tells the solver which pairs are worth looking at.
+ * <p>
+ * The matrix is filled on a ForkJoinPool in blocks of rows. Inside a block the columns are visited
+ * in tiles, so the edge strips of a tile stay in cache while all rows of the block are scored against them.
+ * Interrupting the thread that builds the matrix cancels the build: the blocks that have not started yet are
+ * skipped, the running ones stop after their current tile, and the constructor throws a CancellationException.
+ */
+public class CompatibilityMatrix {
+    private static final int ROW_BLOCK = 16;
+    private static final int COLUMN_TILE = 64;
+    private static final float EPSILON = 1e-6f;
+
+    private final int count;
+    private final float[] horizontal;
+    private final float[] vertical;
+    private final SparseScores sparseHorizontal;
+    private final SparseScores sparseVertical;
+
+    /**
+     * Builds the matrix on the pool of the calling task, or on the common ForkJoinPool when the caller is not
+     * running in a ForkJoinPool. The parallelism of the common pool can be set with the
+     * java.util.concurrent.ForkJoinPool.common.parallelism property.
+     *
+     * @param edges  the edge index of the pieces
+     * @param metric the metric that scores a pair of borders
+     */
+    public CompatibilityMatrix(EdgeIndex edges, EdgeMetric metric) {
+        this(edges, metric, (Progress) null);
+    }
+
+    /**
+     * Builds the matrix on the same pool as {@link #CompatibilityMatrix(EdgeIndex, EdgeMetric)}, reporting the
+     * scored pairs as the {@link Progress#SCORE} stage.
+     *
+     * @param edges    the edge index of the pieces
+     * @param metric   the metric that scores a pair of borders
+     * @param progress the receiver of the progress, or null
+     */
+    public CompatibilityMatrix(EdgeIndex edges, EdgeMetric metric, Progress progress) {
+        count = edges.size();
+        horizontal = new float[denseLength(count)];
+        vertical = new float[horizontal.length];
+        sparseHorizontal = null;
+        sparseVertical = null;
+        fill(currentPool(), edges, metric, false, progress);
+    }
+
+    /**
+     * Builds the matrix using a pool with the given number of worker threads.
+     *
+     * @param edges       the edge index of the pieces
+     * @param metric      the metric that scores a pair of borders
+     * @param parallelism the number of worker threads
+     */
+    public CompatibilityMatrix(EdgeIndex edges, EdgeMetric metric, int parallelism) {
+        count = edges.size();
+        horizontal = new float[denseLength(count)];
+        vertical = new float[horizontal.length];
+        sparseHorizontal = null;
+        sparseVertical = null;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            fill(pool, edges, metric, false, null);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Builds the matrix on the given pool.
+     *
+     * @param edges  the edge index of the pieces
+     * @param metric the metric that scores a pair of borders
+     * @param pool   the pool that runs the scoring tasks
+     */
+    public CompatibilityMatrix(EdgeIndex edges, EdgeMetric metric, ForkJoinPool pool) {
+        count = edges.size();
+        horizontal = new float[denseLength(count)];
+        vertical = new float[horizontal.length];
+        sparseHorizontal = null;
+        sparseVertical = null;
+        fill(pool, edges, metric, false, null);
+    }
+
+    /**
+     * Builds a sparse matrix, scoring only the pairs proposed by a {@link CandidateIndex}, on the same pool as
+     * {@link #CompatibilityMatrix(EdgeIndex, EdgeMetric)}.
+     * Every other pair reads as a score worse than the worst scored pair, so it is still available to the
+     * solver as a last resort.
+     *
+     * @param edges      the edge index of the pieces
+     * @param metric     the metric that scores a pair of borders
+     * @param candidates the pairs to score
+     */
+    public CompatibilityMatrix(EdgeIndex edges, EdgeMetric metric, CandidateIndex candidates) {
+        this(edges, metric, candidates, null);
+    }
+
+    /**
+     * Builds a sparse matrix like {@link #CompatibilityMatrix(EdgeIndex, EdgeMetric, CandidateIndex)}, reporting
+     * the scored pieces as the {@link Progress#SCORE} stage.
+     *
+     * @param edges      the edge index of the pieces
+     * @param metric     the metric that scores a pair of borders
+     * @param candidates the pairs to score
+     * @param progress   the receiver of the progress, or null
+     */
+    public CompatibilityMatrix(EdgeIndex edges, EdgeMetric metric, CandidateIndex candidates, Progress progress) {
+        count = edges.size();
+        horizontal = null;
+        vertical = null;
+        int[][] right = new int[count][];
+        int[][] lower = new int[count][];
+        for (int i = 0; i < count; i++) {
+            right[i] = candidates.horizontal(i);
+            lower[i] = candidates.vertical(i);
+        }
+        sparseHorizontal = new SparseScores(count, right);
+        sparseVertical = new SparseScores(count, lower);
+        fill(currentPool(), edges, metric, true, progress);
+        sparseHorizontal.setPenalty();
+        sparseVertical.setPenalty();
+    }
+
+    /**
+     * Wraps scores that were computed before, e.g. read back from a {@link PieceStore}.
+     *
+     * @param count      the number of pieces
+     * @param horizontal the horizontal scores, row i holding piece i on the left
+     * @param vertical   the vertical scores, row i holding piece i on top
+     */
+    public CompatibilityMatrix(int count, float[] horizontal, float[] vertical) {
+        this.count = count;
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+        this.sparseHorizontal = null;
+        this.sparseVertical = null;
+    }
+
+    /**
+     * Returns the length of the flat score arrays of a dense matrix.
+     *
+     * @throws IllegalArgumentException if there are too many pieces to score every pair
+     */
+    private static int denseLength(int count) {
+        long length = (long) count * count;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many pieces to score every pair: " + count
+                    + "; score only the candidates of a CandidateIndex");
+        }
+        return (int) length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Tells whether only the candidate pairs were scored.
+     *
+     * @return true for a matrix built from a {@link CandidateIndex}
+     */
+    public boolean isSparse() {
+        return sparseHorizontal != null;
+    }
+
+    /**
+     * Returns the pieces that were scored on one side of a piece, in ascending order. The array must not be modified.
+     *
+     * @param piece the index of the piece
+     * @param side  one of the {@link EdgeIndex} side constants
+     * @return the indexes of the scored partners, or null if every piece was scored
+     */
+    public int[] partners(int piece, int side) {
+        if (!isSparse()) {
+            return null;
+        }
+        switch (side) {
+            case EdgeIndex.LEFT:
+                return sparseHorizontal.backward[piece];
+            case EdgeIndex.RIGHT:
+                return sparseHorizontal.forward[piece];
+            case EdgeIndex.TOP:
+                return sparseVertical.backward[piece];
+            default:
+                return sparseVertical.forward[piece];
+        }
+    }
+
+    /**
+     * Returns the dissimilarity of piece left placed directly to the left of piece right.
+     *
+     * @param left  the index of the piece on the left
+     * @param right the index of the piece on the right
+     * @return the dissimilarity, lower is better
+     */
+    public float horizontal(int left, int right) {
+        return horizontal != null ? horizontal[left * count + right] : sparseHorizontal.score(left, right);
+    }
+
+    /**
+     * Returns the dissimilarity of piece upper placed directly above piece lower.
+     *
+     * @param upper the index of the upper piece
+     * @param lower the index of the lower piece
+     * @return the dissimilarity, lower is better
+     */
+    public float vertical(int upper, int lower) {
+        return vertical != null ? vertical[upper * count + lower] : sparseVertical.score(upper, lower);
+    }
+
+    /**
+     * Divides every score by the second-best score of the two pieces involved.
+     * <p>
+     * A pair that is much better than every alternative of both pieces ends up well below 1, while a pair
+     * that is only as good as several others ends up near 1. This turns absolute scores, which depend on the
+     * texture of the image, into a confidence that can be compared across the whole puzzle.
+     */
+    public void normalizeBySecondBest() {
+        if (isSparse()) {
+            sparseHorizontal.normalize();
+            sparseVertical.normalize();
+        } else {
+            normalize(horizontal);
+            normalize(vertical);
+        }
+    }
+
+    private void normalize(float[] scores) {
+        float[] rowSecond = new float[count];
+        float[] columnSecond = new float[count];
+        float[] columnBest = new float[count];
+        Arrays.fill(columnBest, Float.MAX_VALUE);
+        Arrays.fill(columnSecond, Float.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            float best = Float.MAX_VALUE;
+            float second = Float.MAX_VALUE;
+            for (int j = 0; j < count; j++) {
+                if (i == j) {
+                    continue;
+                }
+                float score = scores[i * count + j];
+                if (score < best) {
+                    second = best;
+                    best = score;
+                } else if (score < second) {
+                    second = score;
+                }
+                if (score < columnBest[j]) {
+                    columnSecond[j] = columnBest[j];
+                    columnBest[j] = score;
+                } else if (score < columnSecond[j]) {
+                    columnSecond[j] = score;
+                }
+            }
+            rowSecond[i] = second;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                scores[i * count + j] /= Math.min(rowSecond[i], columnSecond[j]) + EPSILON;
+            }
+        }
+    }
+
+    /**
+     * Returns the pool the calling task runs in, so a caller with its own bounded pool keeps the scoring in it.
+     */
+    private static ForkJoinPool currentPool() {
+        return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Runs the scoring tasks and waits for them interruptibly, since a plain invoke or join clears the interrupt
+     * status of the waiting thread until it returns.
+     */
+    private void fill(ForkJoinPool pool, EdgeIndex edges, EdgeMetric metric, boolean sparse, Progress progress) {
+        Fill fill = new Fill(edges, metric, sparse, progress);
+        ForkJoinTask<Void> task = pool.submit(new BlockTask(fill, 0, count));
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            fill.cancelled = true;
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Matrix build interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * The state one build shares between its tasks: what to score, the cancel flag and the scored work.
+     */
+    private static final class Fill {
+        private final EdgeIndex edges;
+        private final EdgeMetric metric;
+        private final boolean sparse;
+        private final Progress progress;
+        private final AtomicLong done = new AtomicLong();
+        private volatile boolean cancelled;
+
+        Fill(EdgeIndex edges, EdgeMetric metric, boolean sparse, Progress progress) {
+            this.edges = edges;
+            this.metric = metric;
+            this.sparse = sparse;
+            this.progress = progress;
+        }
+
+        void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException("Matrix build cancelled");
+            }
+        }
+
+        /**
+         * Reports finished work: pairs of a dense build, or pieces of a sparse one.
+         */
+        void advance(long units, long total) {
+            long finished = done.addAndGet(units);
+            if (progress != null) {
+                progress.update(Progress.SCORE, finished, total);
+            }
+        }
+    }
+
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Fill fill;
+        private final EdgeIndex edges;
+        private final EdgeMetric metric;
+        private final int from;
+        private final int to;
+
+        BlockTask(Fill fill, int from, int to) {
+            this.fill = fill;
+            this.edges = fill.edges;
+            this.metric = fill.metric;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            fill.checkCancelled();
+            if (to - from <= ROW_BLOCK) {
+                if (fill.sparse) {
+                    scoreCandidates();
+                    fill.advance(to - from, count);
+                } else {
+                    scoreBlock();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BlockTask(fill, from, middle), new BlockTask(fill, middle, to));
+        }
+
+        private void scoreCandidates() {
+            for (int i = from; i < to; i++) {
+                int[] right = sparseHorizontal.forward[i];
+                float[] rightScores = sparseHorizontal.scores[i];
+                for (int k = 0; k < right.length; k++) {
+                    rightScores[k] = metric.dissimilarity(edges, i, EdgeIndex.RIGHT, right[k], EdgeIndex.LEFT);
+                }
+                int[] lower = sparseVertical.forward[i];
+                float[] lowerScores = sparseVertical.scores[i];
+                for (int k = 0; k < lower.length; k++) {
+                    lowerScores[k] = metric.dissimilarity(edges, i, EdgeIndex.BOTTOM, lower[k], EdgeIndex.TOP);
+                }
+            }
+        }
+
+        private void scoreBlock() {
+            for (int tile = 0; tile < count; tile += COLUMN_TILE) {
+                fill.checkCancelled();
+                int tileEnd = Math.min(tile + COLUMN_TILE, count);
+                for (int i = from; i < to; i++) {
+                    int row = i * count;
+                    for (int j = tile; j < tileEnd; j++) {
+                        horizontal[row + j] = metric.dissimilarity(edges, i, EdgeIndex.RIGHT, j, EdgeIndex.LEFT);
+                        vertical[row + j] = metric.dissimilarity(edges, i, EdgeIndex.BOTTOM, j, EdgeIndex.TOP);
+                    }
+                }
+                fill.advance((long) (to - from) * (tileEnd - tile), (long) count * count);
+            }
+        }
+    }
+
+    /**
+     * The scores of one direction of a sparse matrix. Row i holds the partners of piece i as the first piece
+     * of the pair, column j the pieces that list j as a partner.
+     */
+    private static final class SparseScores {
+        private final int count;
+        private final int[][] forward;
+        private final float[][] scores;
+        private final int[][] backward;
+        private float penalty;
+        private float[] rowSecond;
+        private float[] columnSecond;
+
+        SparseScores(int count, int[][] candidates) {
+            this.count = count;
+            forward = new int[count][];
+            scores = new float[count][];
+            int[] columnSizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                int self = i;
+                forward[i] = Arrays.stream(candidates[i]).filter(j -> j != self).sorted().distinct().toArray();
+                scores[i] = new float[forward[i].length];
+                for (int j : forward[i]) {
+                    columnSizes[j]++;
+                }
+            }
+            backward = new int[count][];
+            for (int j = 0; j < count; j++) {
+                backward[j] = new int[columnSizes[j]];
+                columnSizes[j] = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                for (int j : forward[i]) {
+                    backward[j][columnSizes[j]++] = i;
+                }
+            }
+        }
+
+        /**
+         * Sets the score of the unscored pairs once the scored pairs are known.
+         */
+        void setPenalty() {
+            float worst = 0;
+            for (float[] row : scores) {
+                for (float score : row) {
+                    worst = Math.max(worst, score);
+                }
+            }
+            penalty = 2 * worst + 1;
+        }
+
+        float score(int i, int j) {
+            int k = Arrays.binarySearch(forward[i], j);
+            if (k >= 0) {
+                return scores[i][k];
+            }
+            return rowSecond == null ? penalty : penalty / (Math.min(rowSecond[i], columnSecond[j]) + EPSILON);
+        }
+
+        /**
+         * Normalizes like the dense matrix does; the penalty counts as an alternative of every piece that
+         * has unscored pairs.
+         */
+        void normalize() {
+            float[] rows = new float[count];
+            float[] columns = new float[count];
+            for (int i = 0; i < count; i++) {
+                rows[i] = secondBest(scores[i], forward[i].length < count - 1);
+            }
+            for (int j = 0; j < count; j++) {
+                float[] column = new float[backward[j].length];
+                for (int k = 0; k < column.length; k++) {
+                    int i = backward[j][k];
+                    column[k] = scores[i][Arrays.binarySearch(forward[i], j)];
+                }
+                columns[j] = secondBest(column, column.length < count - 1);
+            }
+            for (int i = 0; i < count; i++) {
+                for (int k = 0; k < forward[i].length; k++) {
+                    scores[i][k] /= Math.min(rows[i], columns[forward[i][k]]) + EPSILON;
+                }
+            }
+            rowSecond = rows;
+            columnSecond = columns;
+        }
+
+        private float secondBest(float[] values, boolean withPenalty) {
+            float best = withPenalty ? penalty : Float.MAX_VALUE;
+            float second = Float.MAX_VALUE;
+            for (float value : values) {
+                if (value < best) {
+                    second = best;
+                    best = value;
+                } else if (value < second) {
+                    second = value;
+                }
+            }
+            return withPenalty ? Math.min(second, penalty) : second;
+        }
+    }
+}
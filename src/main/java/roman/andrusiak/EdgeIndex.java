@@ -0,0 +1,272 @@
+package roman.andrusiak;
+
+/**
+ * The EdgeIndex class holds the four border strips of every puzzle piece as primitive arrays.
+ * Each strip is read from the image once, so pairwise edge comparisons become plain array loops
+ * instead of repeated BufferedImage.getRGB calls.
+ * <p>
+ * Besides the packed pixels of the border, the index provides the border and the strip next to it in a
+ * per-channel float layout (all red values, then all green, then all blue) and the gradient statistics of every
+ * border for the {@link EdgeMetric}s. Each of these is computed for all pieces on its first use, so a metric only
+ * pays for what it reads: the exact metric reads none of them, the gradient metric the border planes and the
+ * statistics.
+ */
+public class EdgeIndex {
+    public static final int LEFT = 0;
+    public static final int TOP = 1;
+    public static final int RIGHT = 2;
+    public static final int BOTTOM = 3;
+
+    private final int[][][] borders = new int[4][][];
+    private final int[][][] inners = new int[4][][];
+    private volatile float[][][] borderChannels;
+    private volatile float[][][] innerChannels;
+    private volatile float[][][] gradientStats;
+
+    /**
+     * Creates an edge index for the given puzzle pieces.
+     * The strips are stored in the same order as the pieces in the array.
+     *
+     * @param puzzles an array of Puzzle objects whose edges should be indexed
+     */
+    public EdgeIndex(Puzzle[] puzzles) {
+        int count = puzzles.length;
+        for (int side = 0; side < 4; side++) {
+            borders[side] = new int[count][];
+            inners[side] = new int[count][];
+        }
+        for (int i = 0; i < count; i++) {
+            IntRaster raster = IntRaster.of(puzzles[i].getImage());
+            int lastX = raster.getWidth() - 1;
+            int lastY = raster.getHeight() - 1;
+            borders[LEFT][i] = raster.column(0);
+            borders[RIGHT][i] = raster.column(lastX);
+            borders[TOP][i] = raster.row(0);
+            borders[BOTTOM][i] = raster.row(lastY);
+            inners[LEFT][i] = raster.column(Math.min(1, lastX));
+            inners[RIGHT][i] = raster.column(Math.max(lastX - 1, 0));
+            inners[TOP][i] = raster.row(Math.min(1, lastY));
+            inners[BOTTOM][i] = raster.row(Math.max(lastY - 1, 0));
+        }
+    }
+
+    /**
+     * Creates an edge index from strips that were extracted before, e.g. by a {@link PieceStore}.
+     *
+     * @param borders the border pixels, indexed by side and piece
+     * @param inners  the pixels one step inside every border, indexed by side and piece
+     */
+    public EdgeIndex(int[][][] borders, int[][][] inners) {
+        for (int side = 0; side < 4; side++) {
+            this.borders[side] = borders[side];
+            this.inners[side] = inners[side];
+        }
+    }
+
+    private float[][][] borderChannels() {
+        float[][][] result = borderChannels;
+        if (result == null) {
+            synchronized (this) {
+                result = borderChannels;
+                if (result == null) {
+                    result = toChannels(borders);
+                    borderChannels = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private float[][][] innerChannels() {
+        float[][][] result = innerChannels;
+        if (result == null) {
+            synchronized (this) {
+                result = innerChannels;
+                if (result == null) {
+                    result = toChannels(inners);
+                    innerChannels = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private float[][][] gradientStats() {
+        float[][][] result = gradientStats;
+        if (result == null) {
+            synchronized (this) {
+                result = gradientStats;
+                if (result == null) {
+                    result = new float[4][size()][];
+                    for (int side = 0; side < 4; side++) {
+                        for (int i = 0; i < result[side].length; i++) {
+                            result[side][i] = gradientStats(borders[side][i], inners[side][i]);
+                        }
+                    }
+                    gradientStats = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the mean and the variance of the gradient across a border for every channel, straight from
+     * the packed pixels. The result holds the three means followed by the three variances.
+     */
+    private static float[] gradientStats(int[] border, int[] inner) {
+        int length = border.length;
+        float[] stats = new float[6];
+        for (int channel = 0; channel < 3; channel++) {
+            int shift = 16 - 8 * channel;
+            float mean = 0;
+            for (int k = 0; k < length; k++) {
+                mean += (float) ((border[k] >> shift) & 0xFF) - ((inner[k] >> shift) & 0xFF);
+            }
+            mean /= length;
+            float variance = 0;
+            for (int k = 0; k < length; k++) {
+                float gradient = (float) ((border[k] >> shift) & 0xFF) - ((inner[k] >> shift) & 0xFF) - mean;
+                variance += gradient * gradient;
+            }
+            stats[channel] = mean;
+            stats[3 + channel] = variance / length;
+        }
+        return stats;
+    }
+
+    private static float[][][] toChannels(int[][][] strips) {
+        float[][][] channels = new float[4][][];
+        for (int side = 0; side < 4; side++) {
+            channels[side] = new float[strips[side].length][];
+            for (int i = 0; i < strips[side].length; i++) {
+                channels[side][i] = toChannels(strips[side][i]);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Splits packed 0xRRGGBB pixels into three consecutive channel planes.
+     */
+    private static float[] toChannels(int[] pixels) {
+        int length = pixels.length;
+        float[] channels = new float[3 * length];
+        for (int k = 0; k < length; k++) {
+            int rgb = pixels[k];
+            channels[k] = (rgb >> 16) & 0xFF;
+            channels[length + k] = (rgb >> 8) & 0xFF;
+            channels[2 * length + k] = rgb & 0xFF;
+        }
+        return channels;
+    }
+
+    /**
+     * Returns the packed pixels of one border of a piece.
+     *
+     * @param piece the index of the piece
+     * @param side  one of LEFT, TOP, RIGHT, BOTTOM
+     * @return the pixels of the border, from top to bottom or from left to right
+     */
+    public int[] border(int piece, int side) {
+        return borders[side][piece];
+    }
+
+    /**
+     * Returns the packed pixels of the strip one pixel inside a border of a piece.
+     *
+     * @param piece the index of the piece
+     * @param side  one of LEFT, TOP, RIGHT, BOTTOM
+     * @return the pixels of the strip, from top to bottom or from left to right
+     */
+    public int[] inner(int piece, int side) {
+        return inners[side][piece];
+    }
+
+    /**
+     * Returns the border of a piece in the per-channel layout.
+     *
+     * @param piece the index of the piece
+     * @param side  one of LEFT, TOP, RIGHT, BOTTOM
+     * @return the red, green and blue values of the border, one plane after another
+     */
+    public float[] borderChannels(int piece, int side) {
+        return borderChannels()[side][piece];
+    }
+
+    /**
+     * Returns the strip one pixel inside the border of a piece in the per-channel layout.
+     * For pieces that are one pixel wide or high it is the border itself.
+     *
+     * @param piece the index of the piece
+     * @param side  one of LEFT, TOP, RIGHT, BOTTOM
+     * @return the red, green and blue values of the strip, one plane after another
+     */
+    public float[] innerChannels(int piece, int side) {
+        return innerChannels()[side][piece];
+    }
+
+    /**
+     * Returns the statistics of the gradient across one border of a piece, that is the border minus the
+     * strip inside it.
+     *
+     * @param piece the index of the piece
+     * @param side  one of LEFT, TOP, RIGHT, BOTTOM
+     * @return the mean gradient of the red, green and blue channel followed by their variances
+     */
+    public float[] gradientStats(int piece, int side) {
+        return gradientStats()[side][piece];
+    }
+
+    public int size() {
+        return borders[LEFT].length;
+    }
+
+    /**
+     * Counts the matching pixels between the left edge of piece i and the right edge of piece j.
+     *
+     * @param i the index of the first piece
+     * @param j the index of the second piece
+     * @return the number of matching pixels
+     */
+    public int compareLeftWithRight(int i, int j) {
+        return countMatches(borders[LEFT][i], borders[RIGHT][j]);
+    }
+
+    /**
+     * Counts the matching pixels between the right edge of piece i and the left edge of piece j.
+     *
+     * @param i the index of the first piece
+     * @param j the index of the second piece
+     * @return the number of matching pixels
+     */
+    public int compareRightWithLeft(int i, int j) {
+        return countMatches(borders[RIGHT][i], borders[LEFT][j]);
+    }
+
+    /**
+     * Counts the matching pixels between the bottom edge of piece i and the top edge of piece j.
+     *
+     * @param i the index of the first piece
+     * @param j the index of the second piece
+     * @return the number of matching pixels
+     */
+    public int compareBottomWithTop(int i, int j) {
+        return countMatches(borders[BOTTOM][i], borders[TOP][j]);
+    }
+
+    /**
+     * Counts the matching pixels between the top edge of piece i and the bottom edge of piece j.
+     *
+     * @param i the index of the first piece
+     * @param j the index of the second piece
+     * @return the number of matching pixels
+     */
+    public int compareTopWithBottom(int i, int j) {
+        return countMatches(borders[TOP][i], borders[BOTTOM][j]);
+    }
+
+    private static int countMatches(int[] edge1, int[] edge2) {
+        return EdgeKernels.DEFAULT.countMatches(edge1, edge2, Math.min(edge1.length, edge2.length));
+    }
+}
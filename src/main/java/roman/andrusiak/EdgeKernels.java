@@ -0,0 +1,81 @@
+package roman.andrusiak;
+
+/**
+ * The EdgeKernels interface holds the innermost loops of the edge metrics.
+ * <p>
+ * {@link #DEFAULT} is the SIMD implementation on the jdk.incubator.vector module when the JVM was started
+ * with {@code --add-modules jdk.incubator.vector}, and the scalar implementation otherwise. Both
+ * implementations are checked against each other by the tests. The property {@code puzzle.vector=false}
+ * forces the scalar kernels.
+ */
+public interface EdgeKernels {
+    EdgeKernels SCALAR = new ScalarEdgeKernels();
+    EdgeKernels DEFAULT = select();
+
+    /**
+     * Counts the positions where both arrays hold the same value.
+     *
+     * @param edge1  the first array
+     * @param edge2  the second array
+     * @param length the number of positions to compare
+     * @return the number of equal positions
+     */
+    default int countMatches(int[] edge1, int[] edge2, int length) {
+        return countMatches(edge1, 0, 1, edge2, 0, 1, length);
+    }
+
+    /**
+     * Counts the positions where two edges hold the same value. An edge starts at an index of its array and
+     * advances by a step: 1 for a row of an image, the stride for a column.
+     *
+     * @param data1  the array of the first edge
+     * @param index1 the index of the first value of the first edge
+     * @param step1  the distance between two values of the first edge
+     * @param data2  the array of the second edge
+     * @param index2 the index of the first value of the second edge
+     * @param step2  the distance between two values of the second edge
+     * @param length the number of positions to compare
+     * @return the number of equal positions
+     */
+    int countMatches(int[] data1, int index1, int step1, int[] data2, int index2, int step2, int length);
+
+    /**
+     * Sums (a[k] - b[k])^2 over a range.
+     *
+     * @param a    the first array
+     * @param b    the second array
+     * @param from the first index, inclusive
+     * @param to   the last index, exclusive
+     * @return the sum of squared differences
+     */
+    float sumSquaredDifferences(float[] a, float[] b, int from, int to);
+
+    /**
+     * Sums (other[k] - border[k] - mean)^2 over a range.
+     *
+     * @param border the border the step starts from
+     * @param other  the border the step goes to
+     * @param mean   the expected step
+     * @param from   the first index, inclusive
+     * @param to     the last index, exclusive
+     * @return the sum of squared deviations of the step from the mean
+     */
+    float sumSquaredSteps(float[] border, float[] other, float mean, int from, int to);
+
+    /**
+     * Picks the vector kernels if the incubator module is present.
+     */
+    private static EdgeKernels select() {
+        if (!Boolean.parseBoolean(System.getProperty("puzzle.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            return (EdgeKernels) Class.forName("roman.andrusiak.VectorEdgeKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Problem with loading the vector edge kernels: " + e.getMessage());
+            return SCALAR;
+        }
+    }
+}
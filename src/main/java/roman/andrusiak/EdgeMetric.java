@@ -0,0 +1,35 @@
+package roman.andrusiak;
+
+/**
+ * The EdgeMetric interface scores how well two piece borders fit next to each other.
+ * Scores are dissimilarities: lower values mean a better fit, and 0 is a perfect fit.
+ */
+public interface EdgeMetric {
+    /**
+     * Counts exactly equal pixels. Only suitable for lossless input without scaling.
+     */
+    EdgeMetric EXACT = new ExactEdgeMetric();
+
+    /**
+     * Sums the squared per-channel differences of the touching pixels.
+     */
+    EdgeMetric SSD = new SsdEdgeMetric();
+
+    /**
+     * Compares the boundary against the color gradient predicted from both pieces (MGC).
+     */
+    EdgeMetric GRADIENT = new GradientEdgeMetric();
+
+    /**
+     * Scores the border firstSide of piece first placed against the border secondSide of piece second.
+     * The sides are opposite: RIGHT against LEFT or BOTTOM against TOP.
+     *
+     * @param edges      the edge index of the pieces
+     * @param first      the index of the first piece
+     * @param firstSide  the side of the first piece that touches the second piece
+     * @param second     the index of the second piece
+     * @param secondSide the side of the second piece that touches the first piece
+     * @return the dissimilarity of the two borders, lower is better
+     */
+    float dissimilarity(EdgeIndex edges, int first, int firstSide, int second, int secondSide);
+}
@@ -0,0 +1,24 @@
+package roman.andrusiak;
+
+/**
+ * The ExactEdgeMetric class scores two borders by the share of pixels that are not exactly equal.
+ */
+public class ExactEdgeMetric implements EdgeMetric {
+    private final EdgeKernels kernels;
+
+    public ExactEdgeMetric() {
+        this(EdgeKernels.DEFAULT);
+    }
+
+    public ExactEdgeMetric(EdgeKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    @Override
+    public float dissimilarity(EdgeIndex edges, int first, int firstSide, int second, int secondSide) {
+        int[] edge1 = edges.border(first, firstSide);
+        int[] edge2 = edges.border(second, secondSide);
+        int length = Math.min(edge1.length, edge2.length);
+        return 1f - (float) kernels.countMatches(edge1, edge2, length) / length;
+    }
+}
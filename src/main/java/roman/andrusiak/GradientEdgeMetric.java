@@ -0,0 +1,50 @@
+package roman.andrusiak;
+
+/**
+ * The GradientEdgeMetric class implements the Mahalanobis gradient compatibility (MGC) with a diagonal covariance.
+ * <p>
+ * For each piece, the gradient across its border (border minus the strip inside it) predicts how the
+ * colors continue into the neighbor. The score sums the squared deviations of the actual step across the
+ * boundary from the mean gradient, weighted by the inverse gradient variance of every channel. The prediction
+ * is made from both pieces and the two sums are added, so the score is symmetric.
+ */
+public class GradientEdgeMetric implements EdgeMetric {
+    /**
+     * Added to every channel variance, so flat borders do not divide by zero.
+     */
+    private static final float VARIANCE_FLOOR = 1f;
+
+    private final EdgeKernels kernels;
+
+    public GradientEdgeMetric() {
+        this(EdgeKernels.DEFAULT);
+    }
+
+    public GradientEdgeMetric(EdgeKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    @Override
+    public float dissimilarity(EdgeIndex edges, int first, int firstSide, int second, int secondSide) {
+        float[] border1 = edges.borderChannels(first, firstSide);
+        float[] border2 = edges.borderChannels(second, secondSide);
+        int length = Math.min(border1.length, border2.length) / 3;
+        float sum = predictionError(border1, edges.gradientStats(first, firstSide), border2, length)
+                + predictionError(border2, edges.gradientStats(second, secondSide), border1, length);
+        return sum / length;
+    }
+
+    /**
+     * Sums the weighted deviations of the step from border to other from the mean gradient of border.
+     * The gradient statistics come precomputed from the {@link EdgeIndex}.
+     */
+    private float predictionError(float[] border, float[] stats, float[] other, int length) {
+        float sum = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int from = channel * length;
+            float deviation = kernels.sumSquaredSteps(border, other, stats[channel], from, from + length);
+            sum += deviation / (stats[3 + channel] + VARIANCE_FLOOR);
+        }
+        return sum;
+    }
+}
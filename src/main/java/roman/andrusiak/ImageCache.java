@@ -0,0 +1,347 @@
+package roman.andrusiak;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The ImageCache class keeps resized and split source images in memory, so a popular image is decoded once.
+ * <p>
+ * Entries are keyed by the canonical path and the modification time of the file and by the grid size, so a
+ * changed file is decoded again. The cache is bounded by the total number of pixel bytes and evicts the least
+ * recently used entry first. Concurrent misses on the same key wait for the one caller that loads the image,
+ * so it is decoded once. With a spill directory, evicted images are written there in a compact format
+ * (deflated RGB bytes) and read back on the next miss instead of decoding the source again.
+ * <p>
+ * A spill file is named by the SHA-256 digest of the source path and the grid, and is written to a temporary
+ * file and renamed into place, so readers never see a partial file. It is deleted once it is read back, when
+ * it turns out to belong to an older version of the source file, and when the cache is closed.
+ */
+public class ImageCache implements AutoCloseable {
+    private static final int SPILL_MAGIC = 0x50435A31;
+    private static final String SPILL_SUFFIX = ".pcz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final long maxBytes;
+    private final File spillDirectory;
+    private final boolean createdSpillDirectory;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> loading = new HashMap<>();
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long spillHits;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes       the maximum number of pixel bytes kept in memory
+     * @param spillDirectory the directory for evicted images, or null to drop them
+     */
+    public ImageCache(long maxBytes, File spillDirectory) {
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory;
+        this.createdSpillDirectory = spillDirectory != null && spillDirectory.mkdirs();
+    }
+
+    private static class Entry {
+        private final BufferedImage image;
+        private final BufferedImage[] pieces;
+        private final File spillFile;
+        private final long bytes;
+
+        Entry(BufferedImage image, BufferedImage[] pieces, File spillFile) {
+            this.image = image;
+            this.pieces = pieces;
+            this.spillFile = spillFile;
+            this.bytes = 4L * image.getWidth() * image.getHeight();
+        }
+    }
+
+    /**
+     * Returns the pieces of an image file resized by {@link ImageManager#resizeImage(String)} and split into
+     * a grid. The pieces are views over one cached image and must not be modified.
+     *
+     * @param path the path of the image file
+     * @param rows the number of rows of the grid
+     * @param cols the number of columns of the grid
+     * @return a new array with the rows * cols pieces, row by row
+     * @throws IOException if the file cannot be read, or the thread is interrupted while another caller loads it
+     */
+    public BufferedImage[] getPieces(String path, int rows, int cols) throws IOException {
+        File file = new File(path).getCanonicalFile();
+        String key = file.getPath() + '|' + file.lastModified() + '|' + rows + 'x' + cols;
+        CompletableFuture<Entry> pending;
+        CompletableFuture<Entry> load = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.pieces.clone();
+            }
+            pending = loading.get(key);
+            if (pending == null) {
+                misses++;
+                load = new CompletableFuture<>();
+                loading.put(key, load);
+            } else {
+                hits++;
+            }
+        }
+        if (load == null) {
+            return await(pending).pieces.clone();
+        }
+        try {
+            Entry entry = load(key, file, rows, cols);
+            load.complete(entry);
+            return entry.pieces.clone();
+        } catch (IOException | RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                loading.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Reads an image back from its spill file or decodes it, and caches it.
+     */
+    private Entry load(String key, File file, int rows, int cols) throws IOException {
+        File spillFile = spillFile(file.getPath() + '|' + rows + 'x' + cols);
+        BufferedImage image = readSpilled(key, spillFile);
+        if (image == null) {
+            image = ImageManager.resizeImage(file.getPath());
+        }
+        Entry entry = new Entry(image, ImageManager.splitImage(image, rows, cols), spillFile);
+        List<Map.Entry<String, Entry>> evicted;
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            currentBytes += entry.bytes - (previous != null ? previous.bytes : 0);
+            evicted = evict();
+        }
+        for (Map.Entry<String, Entry> eldest : evicted) {
+            spill(eldest.getKey(), eldest.getValue());
+        }
+        return entry;
+    }
+
+    /**
+     * Waits for the entry another caller is loading, and rethrows its failure.
+     */
+    private static Entry await(CompletableFuture<Entry> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the image to load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Removes least recently used entries until the cache fits its budget.
+     *
+     * @return the removed entries, to be spilled outside the lock
+     */
+    private List<Map.Entry<String, Entry>> evict() {
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= eldest.getValue().bytes;
+            evictions++;
+            evicted.add(eldest);
+        }
+        return evicted;
+    }
+
+    /**
+     * Names the spill file of a source file and grid by the SHA-256 digest of the name, so two sources never
+     * share a spill file. The modification time is not part of the name, so a newer version of the source
+     * replaces the spill of the older one.
+     */
+    private File spillFile(String name) {
+        if (spillDirectory == null) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8));
+            return new File(spillDirectory, HexFormat.of().formatHex(digest) + SPILL_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void spill(String key, Entry entry) {
+        if (entry.spillFile == null) {
+            return;
+        }
+        IntRaster raster = IntRaster.of(entry.image);
+        File temporary = null;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            temporary = File.createTempFile("spill", TEMPORARY_SUFFIX, spillDirectory);
+            write(key, raster, temporary, deflater);
+            try {
+                Files.move(temporary.toPath(), entry.spillFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), entry.spillFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Problem with image cache spilling" + e.getMessage());
+            if (temporary != null) {
+                temporary.delete();
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void write(String key, IntRaster raster, File file, Deflater deflater) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)), deflater, 1 << 16))) {
+            out.writeInt(SPILL_MAGIC);
+            out.writeUTF(key);
+            out.writeInt(raster.getWidth());
+            out.writeInt(raster.getHeight());
+            byte[] row = new byte[raster.getWidth() * 3];
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0, i = 0; x < raster.getWidth(); x++) {
+                    int rgb = raster.get(x, y);
+                    row[i++] = (byte) (rgb >> 16);
+                    row[i++] = (byte) (rgb >> 8);
+                    row[i++] = (byte) rgb;
+                }
+                out.write(row);
+            }
+        }
+    }
+
+    /**
+     * Reads a spilled image back and deletes its file, since the image is cached in memory again.
+     * A file spilled for another key, which by the name of the file is an older version of the same source
+     * and grid, is deleted as well.
+     *
+     * @return the image, or null if there is no spill for the key
+     */
+    private BufferedImage readSpilled(String key, File file) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(new FileInputStream(file)), inflater, 1 << 16))) {
+            if (in.readInt() != SPILL_MAGIC || !key.equals(in.readUTF())) {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            IntRaster raster = IntRaster.of(image);
+            byte[] row = new byte[width * 3];
+            for (int y = 0; y < height; y++) {
+                in.readFully(row);
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    raster.set(x, y, (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF));
+                }
+            }
+            synchronized (this) {
+                spillHits++;
+            }
+            return image;
+        } catch (IOException e) {
+            System.err.println("Problem with image cache reading" + e.getMessage());
+            return null;
+        } finally {
+            inflater.end();
+            file.delete();
+        }
+    }
+
+    /**
+     * Empties the cache and deletes its spill files, and the spill directory if the cache created it.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            entries.clear();
+            currentBytes = 0;
+        }
+        if (spillDirectory == null) {
+            return;
+        }
+        File[] files = spillDirectory.listFiles((directory, name) -> name.endsWith(SPILL_SUFFIX)
+                || name.startsWith("spill") && name.endsWith(TEMPORARY_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (createdSpillDirectory) {
+            spillDirectory.delete();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getSpillHits() {
+        return spillHits;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,153 @@
+package roman.andrusiak;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ImageExporter class writes PNG files concurrently on a bounded pool of threads.
+ * <p>
+ * Every pool thread keeps its own PNG ImageWriter, so writers are created once per thread instead of once per
+ * file, and disposes it when the thread ends after the exporter is closed. The deflate level is set through
+ * ImageWriteParam: level 0 stores the pixels uncompressed, level 1 ({@link #FAST}) is the quickest real
+ * compression and level 9 gives the smallest files. The queue of the pool is bounded; when it is full the
+ * submitting thread writes the file itself with a writer of its own for that file, which slows the producer
+ * down instead of buffering images without limit. Failures are reported through the returned futures.
+ */
+public class ImageExporter implements AutoCloseable {
+    public static final int FAST = 1;
+    public static final int DEFAULT = 6;
+    public static final int SMALLEST = 9;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<ImageWriter> writers = new ThreadLocal<>();
+    private final float compressionQuality;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param threads          the number of writer threads
+     * @param compressionLevel the deflate level, from 0 (no compression) to 9 (smallest files)
+     */
+    public ImageExporter(int threads, int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + compressionLevel);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), runnable -> {
+                    Thread thread = new Thread(() -> runWithWriter(runnable),
+                            "image-exporter-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, pool) -> {
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("The image exporter is closed");
+                    }
+                    runWithWriter(runnable);
+                });
+        this.compressionQuality = 1f - compressionLevel / 9f;
+    }
+
+    /**
+     * Runs a task and disposes the writer it created on the current thread once the task ends. A pool thread
+     * runs its whole life in one call; a submitting thread calls it for the one file it writes itself.
+     */
+    private void runWithWriter(Runnable task) {
+        ImageWriter previous = writers.get();
+        writers.remove();
+        try {
+            task.run();
+        } finally {
+            ImageWriter writer = writers.get();
+            if (writer != null) {
+                writer.dispose();
+            }
+            if (previous != null) {
+                writers.set(previous);
+            } else {
+                writers.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the writer of the current thread, creating it on first use.
+     */
+    private ImageWriter writer() {
+        ImageWriter writer = writers.get();
+        if (writer == null) {
+            Iterator<ImageWriter> candidates = ImageIO.getImageWritersByFormatName("png");
+            if (!candidates.hasNext()) {
+                throw new IllegalStateException("No PNG image writer");
+            }
+            writer = candidates.next();
+            writers.set(writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Writes an image as PNG in the background.
+     *
+     * @param image the image to write
+     * @param file  the target file
+     * @return a future with the written file, completed exceptionally if writing fails
+     */
+    public CompletableFuture<File> write(BufferedImage image, File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                writeNow(image, file);
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private void writeNow(BufferedImage image, File file) throws IOException {
+        Metrics.time("writeImage", 0, 0, 1, () -> {
+            ImageWriter writer = writer();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(compressionQuality);
+            }
+            file.delete();
+            try (ImageOutputStream output = new FileImageOutputStream(file)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.reset();
+            }
+        });
+    }
+
+    /**
+     * Stops accepting images and waits for the queued ones to be written. Every pool thread disposes its writer
+     * as it ends, so a writer still in use after the wait is disposed by its thread once its file is written.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package roman.andrusiak;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -9,25 +8,65 @@ import java.io.IOException;
 public class ImageManager {
     public static final int WIDTH = 1280;
     public static final int HEIGHT = 1024;
-    public static final int NumPuzzles = 16;
+    public static final int ROWS = 4;
+    public static final int COLS = 4;
+    public static final int NumPuzzles = ROWS * COLS;
+    /**
+     * The {@link Resizer} mode of {@link #resizeImage(String)}, set with the puzzle.resize system property
+     * (nearest, box, bilinear or lanczos). The default is the box filter: the image is decoded at no less than
+     * twice the target size and every target pixel averages the decoded pixels under it, so it does not alias.
+     * Bilinear and Lanczos trade speed for sharper edges and are opt-in; nearest is the fastest and aliases.
+     */
+    public static final Resizer.Mode RESIZE_MODE = Resizer.Mode.parse(System.getProperty("puzzle.resize"),
+            Resizer.Mode.BOX);
+    /**
+     * The time budget in milliseconds of the {@link IslandSolver} search that {@link #sortPuzzle} and
+     * {@link #sortBoard} run when the greedy placement is ambiguous, set with the puzzle.searchMillis system
+     * property. 0 keeps the greedy placement.
+     */
+    public static final long SEARCH_MILLIS = Long.getLong("puzzle.searchMillis", 2000);
+    /**
+     * The number of pieces from which {@link #sortPuzzle(Puzzle[], int, int)} and {@link #sortBoard} score every
+     * border only against its {@link #CANDIDATES} most likely partners, set with the puzzle.sparseFrom system
+     * property. Around 1024 pieces the candidate index costs about as much as it saves and keeps the best partner
+     * of more than 99.8% of the borders; beyond that the N² scoring of all pairs dominates the solve.
+     */
+    public static final int SPARSE_FROM = Integer.getInteger("puzzle.sparseFrom", 1024);
+    /**
+     * The number of partners scored per border above {@link #SPARSE_FROM} pieces, set with the puzzle.candidates
+     * system property.
+     */
+    public static final int CANDIDATES = Integer.getInteger("puzzle.candidates", 16);
 
     /**
      * Resizes an image located at the specified URL to a predefined width and height.
      * The method reads the image file, resizes it using the specified width and height,
      * and returns the resized image as a BufferedImage object.
+     * The file is decoded with subsampling by {@link StreamingImageReader}, so a very large source is never
+     * held in memory at full resolution.
      *
      * @param url the URL of the image file to resize
      * @return the resized image as a BufferedImage object
      * @throws IOException if an error occurs while reading or resizing the image
      */
     public static BufferedImage resizeImage(String url) throws IOException {
-        File inputFile = new File(url);
-        BufferedImage inputImage = ImageIO.read(inputFile);
-        BufferedImage resizedImage = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics2D = resizedImage.createGraphics();
-        graphics2D.drawImage(inputImage, 0, 0, WIDTH, HEIGHT, null);
-        graphics2D.dispose();
-        return resizedImage;
+        return resizeImage(url, WIDTH, HEIGHT, RESIZE_MODE);
+    }
+
+    /**
+     * Resizes an image located at the specified URL to the given size with the given {@link Resizer} mode.
+     *
+     * @param url    the URL of the image file to resize
+     * @param width  the width of the resized image
+     * @param height the height of the resized image
+     * @param mode   the resize mode, e.g. {@link Resizer.Mode#BOX} for speed or {@link Resizer.Mode#LANCZOS}
+     *               for quality
+     * @return the resized image as a BufferedImage object
+     * @throws IOException if an error occurs while reading or resizing the image
+     */
+    public static BufferedImage resizeImage(String url, int width, int height, Resizer.Mode mode) throws IOException {
+        return Metrics.time("resizeImage", 0, 0, 1,
+                () -> StreamingImageReader.readScaled(new File(url), width, height, mode));
     }
 
     /**
@@ -40,20 +79,10 @@ public class ImageManager {
      * @return the number of matching pixels between the left edge of puzzle1 and the right edge of puzzle2
      */
     public static int compareLeftWithRight(Puzzle puzzle1, Puzzle puzzle2) {
-        BufferedImage image1 = puzzle1.getImage();
-        BufferedImage image2 = puzzle2.getImage();
-        int height = image1.getHeight();
-        int count = 0;
-        for (int y = 0; y < height; y++) {
-            int pixel1 = image1.getRGB(0, y);
-            int pixel2 = image2.getRGB(image2.getWidth() - 1, y);
-            if (pixel1 == pixel2) {
-                count++;
-            }
-
-
-        }
-        return count;
+        IntRaster image1 = IntRaster.of(puzzle1.getImage());
+        IntRaster image2 = IntRaster.of(puzzle2.getImage());
+        return countMatches(image1, image1.index(0, 0), image1.getStride(),
+                image2, image2.index(image2.getWidth() - 1, 0), image2.getStride(), image1.getHeight());
     }
 
     /**
@@ -68,21 +97,10 @@ public class ImageManager {
      * @return the number of matching pixels between the right edge of puzzle1 and the left edge of puzzle2
      */
     public static int compareRightWithLeft(Puzzle puzzle1, Puzzle puzzle2) {
-        BufferedImage image1 = puzzle1.getImage();
-        BufferedImage image2 = puzzle2.getImage();
-        int height = image1.getHeight();
-        int count = 0;
-        for (int y = 0; y < height; y++) {
-            int pixel1 = image1.getRGB(image1.getWidth() - 1, y);
-            int pixel2 = image2.getRGB(0, y);
-
-            if (pixel1 == pixel2) {
-                count++;
-            }
-
-        }
-
-        return count;
+        IntRaster image1 = IntRaster.of(puzzle1.getImage());
+        IntRaster image2 = IntRaster.of(puzzle2.getImage());
+        return countMatches(image1, image1.index(image1.getWidth() - 1, 0), image1.getStride(),
+                image2, image2.index(0, 0), image2.getStride(), image1.getHeight());
     }
 
     /**
@@ -95,19 +113,10 @@ public class ImageManager {
      * @return the number of matching pixels between the bottom edge of puzzle1 and the top edge of puzzle2
      */
     public static int compareBottomWithTop(Puzzle puzzle1, Puzzle puzzle2) {
-        BufferedImage image1 = puzzle1.getImage();
-        BufferedImage image2 = puzzle2.getImage();
-        int width = image1.getWidth();
-        int count = 0;
-        for (int x = 0; x < width; x++) {
-            int pixel1 = image1.getRGB(x, image1.getHeight() - 1);
-            int pixel2 = image2.getRGB(x, 0);
-
-            if (pixel1 == pixel2) {
-                count++;
-            }
-        }
-        return count;
+        IntRaster image1 = IntRaster.of(puzzle1.getImage());
+        IntRaster image2 = IntRaster.of(puzzle2.getImage());
+        return countMatches(image1, image1.index(0, image1.getHeight() - 1), 1,
+                image2, image2.index(0, 0), 1, image1.getWidth());
     }
 
     /**
@@ -120,21 +129,21 @@ public class ImageManager {
      * @return the number of matching pixels between the top edge of puzzle1 and the bottom edge of puzzle2
      */
     public static int compareTopWithBottom(Puzzle puzzle1, Puzzle puzzle2) {
-        BufferedImage image1 = puzzle1.getImage();
-        BufferedImage image2 = puzzle2.getImage();
-        int width = image1.getWidth();
-        int count = 0;
-        for (int x = 0; x < width; x++) {
-
-
-            int pixel1 = image1.getRGB(x, 0);
-            int pixel2 = image2.getRGB(x, image2.getHeight() - 1);
+        IntRaster image1 = IntRaster.of(puzzle1.getImage());
+        IntRaster image2 = IntRaster.of(puzzle2.getImage());
+        return countMatches(image1, image1.index(0, 0), 1,
+                image2, image2.index(0, image2.getHeight() - 1), 1, image1.getWidth());
+    }
 
-            if (pixel1 == pixel2) {
-                count++;
-            }
-        }
-        return count;
+    /**
+     * Counts the equal pixels of two edges that are read straight from the backing arrays by the
+     * {@link EdgeKernels}. An edge starts at the given index and advances by the given step: 1 for a row, the
+     * stride for a column.
+     */
+    private static int countMatches(IntRaster image1, int index1, int step1,
+                                    IntRaster image2, int index2, int step2, int length) {
+        return EdgeKernels.DEFAULT.countMatches(image1.getData(), index1, step1,
+                image2.getData(), index2, step2, length);
     }
 
     /**
@@ -146,32 +155,58 @@ public class ImageManager {
      * @return an array of BufferedImages representing the puzzle pieces
      */
     public static BufferedImage[] splitImage(BufferedImage image) {
+        return splitImage(image, ROWS, COLS);
+    }
 
-        int puzzleCount = 0;
-        BufferedImage[] puzzles = new BufferedImage[NumPuzzles];
-        int startX = 0;
-        int startY = 0;
-        int width = WIDTH / 4;
-        int height = HEIGHT / 4;
-        while (puzzleCount < NumPuzzles) {
-            BufferedImage puzzle = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            for (int y = startY; y < startY + height; y++) {
-                for (int x = startX; x < startX + width; x++) {
-                    int rgb = image.getRGB(x, y);
-                    int puzzleX = x - startX;
-                    int puzzleY = y - startY;
-                    puzzle.setRGB(puzzleX, puzzleY, rgb);
+    /**
+     * Splits a given image into a grid of puzzle pieces.
+     * Every piece has the size image width / cols by image height / rows; leftover pixels at the
+     * right and bottom border are dropped. The pieces are returned row by row.
+     * <p>
+     * The pieces are views over the pixels of the source image, so no pixel data is copied.
+     * Use {@link #splitImage(BufferedImage, int, int, boolean)} to get detached tiles.
+     *
+     * @param image the BufferedImage to be split into puzzle pieces
+     * @param rows  the number of rows of the grid
+     * @param cols  the number of columns of the grid
+     * @return an array of rows * cols BufferedImages representing the puzzle pieces
+     */
+    public static BufferedImage[] splitImage(BufferedImage image, int rows, int cols) {
+        return splitImage(image, rows, cols, false);
+    }
+
+    /**
+     * Splits a given image into a grid of puzzle pieces.
+     * <p>
+     * Without copying, every piece is a {@link BufferedImage#getSubimage} view that shares the raster of
+     * the source image, and changes to one are visible in the other. A source that is not TYPE_INT_RGB is
+     * converted once and the views share the converted image. With copying, every piece gets its own raster.
+     *
+     * @param image    the BufferedImage to be split into puzzle pieces
+     * @param rows     the number of rows of the grid
+     * @param cols     the number of columns of the grid
+     * @param detached true to copy the pixels of every piece into a new image, false to return views
+     * @return an array of rows * cols BufferedImages representing the puzzle pieces
+     */
+    public static BufferedImage[] splitImage(BufferedImage image, int rows, int cols, boolean detached) {
+        return Metrics.time("splitImage", rows, cols, rows * cols, () -> {
+            BufferedImage[] puzzles = new BufferedImage[rows * cols];
+            IntRaster source = IntRaster.of(image);
+            int width = image.getWidth() / cols;
+            int height = image.getHeight() / rows;
+            for (int puzzleCount = 0; puzzleCount < puzzles.length; puzzleCount++) {
+                int startX = (puzzleCount % cols) * width;
+                int startY = (puzzleCount / cols) * height;
+                if (detached) {
+                    BufferedImage puzzle = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                    source.copyTo(startX, startY, width, height, IntRaster.of(puzzle), 0, 0);
+                    puzzles[puzzleCount] = puzzle;
+                } else {
+                    puzzles[puzzleCount] = source.getImage().getSubimage(startX, startY, width, height);
                 }
             }
-            puzzles[puzzleCount] = puzzle;
-            puzzleCount++;
-            startX += width;
-            if (startX >= image.getWidth()) {
-                startX = 0;
-                startY += height;
-            }
-        }
-        return puzzles;
+            return puzzles;
+        });
     }
 
     /**
@@ -195,120 +230,299 @@ public class ImageManager {
      * The method compares each puzzle piece with every other piece to determine its neighbors
      * based on matching edges. The puzzle piece with the closest match in each direction
      * (left, right, top, bottom) is set as the neighbor for the current puzzle piece.
+     * The edges are read once into an {@link EdgeIndex}, so the comparisons do not touch the images again.
+     * Links between views of one {@link Board} are stored in the board as tile ids.
      *
      * @param puzzles an array of Puzzle objects representing the puzzle pieces
      * @return an array of Puzzle objects with updated neighbor connections
      */
     public static Puzzle[] fillCompares(Puzzle[] puzzles) {
-        for (int i = 0; i < puzzles.length; i++) {
-            int leftMax = 1;
-            int rightMax = 1;
-            int topMax = 1;
-            int bottomMax = 1;
-            for (int j = 0; j < puzzles.length; j++) {
-                if (leftMax < compareLeftWithRight(puzzles[i], puzzles[j])) {
-                    puzzles[i].setPuzzleLeft(puzzles[j]);
-                    leftMax = compareLeftWithRight(puzzles[i], puzzles[j]);
-                } else if (compareRightWithLeft(puzzles[i], puzzles[j]) > rightMax) {
-                    puzzles[i].setPuzzleRight(puzzles[j]);
-                    rightMax = compareRightWithLeft(puzzles[i], puzzles[j]);
-                } else if (compareBottomWithTop(puzzles[i], puzzles[j]) > bottomMax) {
-                    puzzles[i].setPuzzleDown(puzzles[j]);
-                    bottomMax = compareBottomWithTop(puzzles[i], puzzles[j]);
-                } else if (compareTopWithBottom(puzzles[i], puzzles[j]) > topMax) {
-                    puzzles[i].setPuzzleUp(puzzles[j]);
-                    topMax = compareTopWithBottom(puzzles[i], puzzles[j]);
+        return Metrics.time("fillCompares", 0, 0, puzzles.length, () -> {
+            EdgeIndex edges = new EdgeIndex(puzzles);
+            for (int i = 0; i < puzzles.length; i++) {
+                int leftMax = 1;
+                int rightMax = 1;
+                int topMax = 1;
+                int bottomMax = 1;
+                for (int j = 0; j < puzzles.length; j++) {
+                    int left = edges.compareLeftWithRight(i, j);
+                    if (leftMax < left) {
+                        puzzles[i].setPuzzleLeft(puzzles[j]);
+                        leftMax = left;
+                        continue;
+                    }
+                    int right = edges.compareRightWithLeft(i, j);
+                    if (right > rightMax) {
+                        puzzles[i].setPuzzleRight(puzzles[j]);
+                        rightMax = right;
+                        continue;
+                    }
+                    int bottom = edges.compareBottomWithTop(i, j);
+                    if (bottom > bottomMax) {
+                        puzzles[i].setPuzzleDown(puzzles[j]);
+                        bottomMax = bottom;
+                        continue;
+                    }
+                    int top = edges.compareTopWithBottom(i, j);
+                    if (top > topMax) {
+                        puzzles[i].setPuzzleUp(puzzles[j]);
+                        topMax = top;
+                    }
                 }
             }
-        }
-        return puzzles;
+            return puzzles;
+        });
     }
 
     /**
-     * Sorts the puzzle pieces in the correct order.
-     * <p>
-     * The method uses a heuristic approach to determine the correct placement of puzzle pieces.
-     * <p>
-     * It starts by finding the top-left corner piece and then iteratively places the adjacent pieces
-     * <p>
-     * based on their connections until all the pieces are sorted.
+     * Sorts the puzzle pieces of a 4x4 puzzle in the correct order.
      *
      * @param puzzles an array of Puzzle objects representing the puzzle pieces
      * @return a sorted array of Puzzle objects representing the puzzle pieces in the correct order
+     * @see #sortPuzzle(Puzzle[], int, int)
      */
     public static Puzzle[] sortPuzzle(Puzzle[] puzzles) {
-        Puzzle[] sortedPuzzle = new Puzzle[puzzles.length];
-        for (int i = 0; i < sortedPuzzle.length; i++) {
-            if (puzzles[i].getPuzzleUp() == null && puzzles[i].getPuzzleLeft() == null) {
-                sortedPuzzle[0] = puzzles[i];
-                break;
+        return sortPuzzle(puzzles, ROWS, COLS);
+    }
+
+    /**
+     * Sorts the puzzle pieces of a rows x cols puzzle in the correct order.
+     * <p>
+     * The pieces are placed by {@link PuzzleSolver}, which grows the solution from the piece with the most
+     * unambiguous neighbors and always fills the free slot whose best candidate fits with the lowest
+     * edge dissimilarity. The pairwise scores are computed in parallel by {@link CompatibilityMatrix}
+     * with the gradient metric, which tolerates the color noise of compressed or scaled images.
+     * If the greedy placement is ambiguous, it is improved by the {@link IslandSolver} for up to
+     * {@link #SEARCH_MILLIS} milliseconds.
+     *
+     * @param puzzles an array of Puzzle objects representing the puzzle pieces
+     * @param rows    the number of rows of the puzzle
+     * @param cols    the number of columns of the puzzle
+     * @return a sorted array of Puzzle objects representing the puzzle pieces in the correct order
+     */
+    public static Puzzle[] sortPuzzle(Puzzle[] puzzles, int rows, int cols) {
+        return sortPuzzle(puzzles, rows, cols, EdgeMetric.GRADIENT);
+    }
+
+    /**
+     * Sorts the puzzle pieces of a rows x cols puzzle like {@link #sortPuzzle(Puzzle[], int, int)}, reporting the
+     * scoring, the placement and the search to the given receiver as they advance.
+     *
+     * @param puzzles  an array of Puzzle objects representing the puzzle pieces
+     * @param rows     the number of rows of the puzzle
+     * @param cols     the number of columns of the puzzle
+     * @param progress the receiver of the progress
+     * @return a sorted array of Puzzle objects representing the puzzle pieces in the correct order
+     */
+    public static Puzzle[] sortPuzzle(Puzzle[] puzzles, int rows, int cols, Progress progress) {
+        return sortPuzzle(puzzles, rows, cols, EdgeMetric.GRADIENT, candidates(puzzles.length), progress);
+    }
+
+    /**
+     * Sorts the puzzle pieces of a rows x cols puzzle in the correct order, scoring the edges with the given metric.
+     * The scores are normalized by the second-best match of every piece before the pieces are placed. From
+     * {@link #SPARSE_FROM} pieces on, only the {@link #CANDIDATES} most likely partners of every border are scored.
+     *
+     * @param puzzles an array of Puzzle objects representing the puzzle pieces
+     * @param rows    the number of rows of the puzzle
+     * @param cols    the number of columns of the puzzle
+     * @param metric  the metric that scores a pair of edges
+     * @return a sorted array of Puzzle objects representing the puzzle pieces in the correct order
+     */
+    public static Puzzle[] sortPuzzle(Puzzle[] puzzles, int rows, int cols, EdgeMetric metric) {
+        return sortPuzzle(puzzles, rows, cols, metric, candidates(puzzles.length));
+    }
+
+    /**
+     * Sorts the puzzle pieces of a rows x cols puzzle, scoring every border only against its most likely partners.
+     * <p>
+     * The partners are proposed by a {@link CandidateIndex}, so only N * candidates pairs are scored instead
+     * of N². The scores are kept in a sparse {@link CompatibilityMatrix}, and the normalization and the
+     * {@link PuzzleSolver} read only the scored pairs, falling back to a scan of all pieces for a slot none
+     * of whose candidates is left. The recall of the index against the exhaustive scoring can be measured with
+     * {@link CandidateIndex#main(String[])}.
+     *
+     * @param puzzles    an array of Puzzle objects representing the puzzle pieces
+     * @param rows       the number of rows of the puzzle
+     * @param cols       the number of columns of the puzzle
+     * @param metric     the metric that scores a pair of edges
+     * @param candidates the number of partners scored per border, or 0 to score all pairs
+     * @return a sorted array of Puzzle objects representing the puzzle pieces in the correct order
+     */
+    public static Puzzle[] sortPuzzle(Puzzle[] puzzles, int rows, int cols, EdgeMetric metric, int candidates) {
+        return sortPuzzle(puzzles, rows, cols, metric, candidates, null);
+    }
+
+    private static Puzzle[] sortPuzzle(Puzzle[] puzzles, int rows, int cols, EdgeMetric metric, int candidates,
+                                       Progress progress) {
+        return Metrics.time("sortPuzzle", rows, cols, puzzles.length, () -> {
+            CompatibilityMatrix matrix = score(new EdgeIndex(puzzles), rows, cols, metric, candidates, progress);
+            int[] placement = place(matrix, rows, cols, SEARCH_MILLIS, progress);
+            Puzzle[] sortedPuzzle = new Puzzle[puzzles.length];
+            for (int i = 0; i < sortedPuzzle.length; i++) {
+                sortedPuzzle[i] = puzzles[placement[i]];
             }
-        }
-        if (sortedPuzzle[0] == null) {
+            return sortedPuzzle;
+        });
+    }
+
+    /**
+     * Sorts the puzzle pieces of a rows x cols puzzle with the {@link IslandSolver}, which keeps improving the
+     * greedy placement on every core until the time budget is spent, even if the greedy placement is not
+     * ambiguous.
+     *
+     * @param puzzles      an array of Puzzle objects representing the puzzle pieces
+     * @param rows         the number of rows of the puzzle
+     * @param cols         the number of columns of the puzzle
+     * @param budgetMillis the time budget of the search in milliseconds
+     * @return a sorted array of Puzzle objects representing the best arrangement found
+     */
+    public static Puzzle[] searchPuzzle(Puzzle[] puzzles, int rows, int cols, long budgetMillis) {
+        return Metrics.time("searchPuzzle", rows, cols, puzzles.length, () -> {
+            CompatibilityMatrix matrix = new CompatibilityMatrix(new EdgeIndex(puzzles), EdgeMetric.GRADIENT);
+            matrix.normalizeBySecondBest();
+            int[] placement = place(matrix, rows, cols, 0, null);
+            if (budgetMillis > 0) {
+                placement = new IslandSolver(matrix, rows, cols, 0, budgetMillis).solve(placement);
+            }
+            Puzzle[] sortedPuzzle = new Puzzle[puzzles.length];
             for (int i = 0; i < sortedPuzzle.length; i++) {
-                if (puzzles[i].getPuzzleLeft() == null && puzzles[i].getPuzzleDown() == null) {
-                    sortedPuzzle[0] = puzzles[i].getPuzzleUp().getPuzzleUp().getPuzzleUp();
-                    break;
-                }
+                sortedPuzzle[i] = puzzles[placement[i]];
             }
-        }
-        int indicator = 1;
-        for (int i = 1; i < puzzles.length; i++) {
-            if (indicator < 4) {
-                if (sortedPuzzle[i - 1].getPuzzleRight() != null) {
-                    sortedPuzzle[i] = sortedPuzzle[i - 1].getPuzzleRight();
-                    indicator++;
-                } else if (i > 4) {
-                    if (sortedPuzzle[i - 4].getPuzzleDown() != null) {
-                        sortedPuzzle[i] = sortedPuzzle[i - 4].getPuzzleDown();
-                        indicator++;
-                    } else {
-                        sortedPuzzle[i] = sortedPuzzle[i - 3].getPuzzleDown();
-                        indicator++;
-                    }
-                } else {
-                    sortedPuzzle[i] = sortedPuzzle[i - 1].getPuzzleDown().getPuzzleRight().getPuzzleUp();
-                    indicator++;
-                }
-            } else {
-                indicator = 1;
-                if (sortedPuzzle[i - 4].getPuzzleDown() != null) {
-                    sortedPuzzle[i] = sortedPuzzle[i - 4].getPuzzleDown();
-                } else if (sortedPuzzle[i - 3].getPuzzleDown() != null && sortedPuzzle[i - 3].getPuzzleDown().getPuzzleLeft() != null) {
-                    sortedPuzzle[i] = sortedPuzzle[i - 3].getPuzzleDown().getPuzzleLeft();
+            return sortedPuzzle;
+        });
+    }
 
-                } else {
-                    sortedPuzzle[i] = sortedPuzzle[i - 2].getPuzzleLeft().getPuzzleLeft();
-                }
+    /**
+     * Solves a board without creating per-piece objects for the placement. Like
+     * {@link #sortPuzzle(Puzzle[], int, int)}, it scores only the candidate partners from {@link #SPARSE_FROM}
+     * pieces on and improves an ambiguous placement with the {@link IslandSolver}.
+     *
+     * @param board  the board to solve
+     * @param metric the metric that scores a pair of edges
+     * @return a copy of the board arranged in the order found by the solver
+     */
+    public static Board sortBoard(Board board, EdgeMetric metric) {
+        return Metrics.time("sortBoard", board.getRows(), board.getCols(), board.size(), () -> {
+            Puzzle[] tiles = new Puzzle[board.size()];
+            for (int tile = 0; tile < tiles.length; tile++) {
+                tiles[tile] = board.puzzle(tile);
             }
+            CompatibilityMatrix matrix = score(new EdgeIndex(tiles), board.getRows(), board.getCols(), metric,
+                    candidates(tiles.length), null);
+            Board sorted = board.copy();
+            sorted.setPermutation(place(matrix, board.getRows(), board.getCols(), SEARCH_MILLIS, null));
+            return sorted;
+        });
+    }
+
+    /**
+     * Returns the number of partners to score per border for a puzzle of the given size.
+     *
+     * @return {@link #CANDIDATES} from {@link #SPARSE_FROM} pieces on, otherwise 0 to score all pairs
+     */
+    private static int candidates(int pieces) {
+        return pieces >= SPARSE_FROM ? CANDIDATES : 0;
+    }
+
+    /**
+     * Scores the pieces, all pairs or only the candidates of a {@link CandidateIndex}, and normalizes the scores
+     * by the second-best match of every piece.
+     */
+    private static CompatibilityMatrix score(EdgeIndex edges, int rows, int cols, EdgeMetric metric, int candidates,
+                                             Progress progress) {
+        CompatibilityMatrix matrix;
+        if (candidates > 0 && candidates < edges.size() - 1) {
+            CandidateIndex index = Metrics.time("candidateIndex", rows, cols, edges.size(),
+                    () -> new CandidateIndex(edges, candidates));
+            matrix = new CompatibilityMatrix(edges, metric, index, progress);
+        } else {
+            matrix = new CompatibilityMatrix(edges, metric, progress);
+        }
+        matrix.normalizeBySecondBest();
+        return matrix;
+    }
+
+    /**
+     * Places the pieces with the greedy {@link PuzzleSolver} and, if that placement is ambiguous, improves it
+     * with the {@link IslandSolver} within the time budget.
+     *
+     * @param matrix       the scores, normalized by the second-best match of every piece
+     * @param rows         the number of rows of the puzzle
+     * @param cols         the number of columns of the puzzle
+     * @param budgetMillis the time budget of the search in milliseconds, or 0 to keep the greedy placement
+     * @param progress     the receiver of the progress of the placement and the search, or null
+     * @return the index of the piece in every slot, row by row
+     */
+    private static int[] place(CompatibilityMatrix matrix, int rows, int cols, long budgetMillis,
+                               Progress progress) {
+        int[] placement = new PuzzleSolver(matrix, rows, cols).solve(progress);
+        if (budgetMillis <= 0 || placement.length < 2) {
+            return placement;
+        }
+        IslandSolver search = new IslandSolver(matrix, rows, cols, 0, budgetMillis);
+        if (!search.isAmbiguous(placement)) {
+            return placement;
+        }
+        if (progress != null) {
+            progress.update(Progress.SEARCH, 0, 1);
         }
-        return sortedPuzzle;
+        int[] greedy = placement;
+        placement = Metrics.time("searchPuzzle", rows, cols, placement.length, () -> search.solve(greedy));
+        if (progress != null) {
+            progress.update(Progress.SEARCH, 1, 1);
+        }
+        return placement;
     }
 
     /**
      * Compares two BufferedImage objects.
      * <p>
      * The comparison takes place in two stages: size comparison and pixel comparison.
+     * The pixels are compared row by row on the backing arrays of the images.
      *
      * @param image1 the first BufferedImage object
      * @param image2 the second BufferedImage object
      * @return true if the images are equal in size and pixel values, false otherwise
      */
     public static boolean compareImages(BufferedImage image1, BufferedImage image2) {
-        if (image1.getWidth() != image2.getWidth() || image1.getHeight() != image2.getHeight()) {
-            return false;
-        }
-        for (int y = 0; y < image1.getHeight(); y++) {
-            for (int x = 0; x < image1.getWidth(); x++) {
-                int rgb1 = image1.getRGB(x, y);
-                int rgb2 = image2.getRGB(x, y);
+        return Metrics.time("compareImages", 0, 0, 1, () -> {
+            if (image1.getWidth() != image2.getWidth() || image1.getHeight() != image2.getHeight()) {
+                return false;
+            }
+            return IntRaster.of(image1).samePixelsAs(IntRaster.of(image2));
+        });
+    }
 
-                if (rgb1 != rgb2) {
+    /**
+     * Compares two arrangements of puzzle pieces without composing their images.
+     * <p>
+     * The arrangements are equal when the pieces at every position show the same pixels. Positions that hold
+     * the same piece are equal right away; otherwise the content hashes of the pieces are compared,
+     * and only pieces with equal hashes are compared pixel by pixel.
+     *
+     * @param puzzles1 the first arrangement
+     * @param puzzles2 the second arrangement
+     * @return true if both arrangements would be assembled into the same image, false otherwise
+     */
+    public static boolean compareArrangements(Puzzle[] puzzles1, Puzzle[] puzzles2) {
+        return Metrics.time("compareArrangements", 0, 0, puzzles1.length, () -> {
+            if (puzzles1.length != puzzles2.length) {
+                return false;
+            }
+            for (int i = 0; i < puzzles1.length; i++) {
+                Puzzle puzzle1 = puzzles1[i];
+                Puzzle puzzle2 = puzzles2[i];
+                if (puzzle1.equals(puzzle2) || puzzle1.getImage() == puzzle2.getImage()) {
+                    continue;
+                }
+                if (puzzle1.getContentHash() != puzzle2.getContentHash()
+                        || !compareImages(puzzle1.getImage(), puzzle2.getImage())) {
                     return false;
                 }
             }
-        }
-        return true;
+            return true;
+        });
     }
 
     /**
@@ -322,25 +536,31 @@ public class ImageManager {
      * @return a BufferedImage object containing the combined image of all the input puzzles
      */
     public static BufferedImage collectImages(Puzzle[] puzzles) {
-        BufferedImage[] images = new BufferedImage[16];
-        for (int i = 0; i < images.length; i++) {
-            images[i] = puzzles[i].getImage();
-        }
-        int width = images[0].getWidth() * 4;
-        int height = images[0].getHeight() * 4;
+        return collectImages(puzzles, COLS);
+    }
 
-        BufferedImage combinedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics g = combinedImage.getGraphics();
-        int x = 0;
-        int y = 0;
-        for (int i = 0; i < images.length; i++) {
-            g.drawImage(images[i], x, y, null);
-            x += images[i].getWidth();
-            if ((i + 1) % 4 == 0) {
-                x = 0;
-                y += images[i].getHeight();
+    /**
+     * Collects images from an array of Puzzle objects and combines them into a single image.
+     * <p>
+     * The method arranges the images in a grid pattern with the given number of images per row.
+     *
+     * @param puzzles an array of Puzzle objects representing the individual images to be collected
+     * @param cols    the number of images per row
+     * @return a BufferedImage object containing the combined image of all the input puzzles
+     */
+    public static BufferedImage collectImages(Puzzle[] puzzles, int cols) {
+        return Metrics.time("collectImages", puzzles.length / cols, cols, puzzles.length, () -> {
+            int rows = puzzles.length / cols;
+            int pieceWidth = puzzles[0].getImage().getWidth();
+            int pieceHeight = puzzles[0].getImage().getHeight();
+
+            BufferedImage combinedImage = new BufferedImage(pieceWidth * cols, pieceHeight * rows, BufferedImage.TYPE_INT_RGB);
+            IntRaster combined = IntRaster.of(combinedImage);
+            for (int i = 0; i < puzzles.length; i++) {
+                IntRaster piece = IntRaster.of(puzzles[i].getImage());
+                piece.copyTo(0, 0, pieceWidth, pieceHeight, combined, (i % cols) * pieceWidth, (i / cols) * pieceHeight);
             }
-        }
-        return combinedImage;
+            return combinedImage;
+        });
     }
 }
@@ -0,0 +1,191 @@
+package roman.andrusiak;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * The IntRaster class gives direct access to the pixels of a TYPE_INT_RGB image.
+ * It reads the backing int[] of the image's DataBufferInt, so the hot loops avoid the color model
+ * conversion and bounds checks of BufferedImage.getRGB and setRGB.
+ * <p>
+ * Pixels are stored as 0xRRGGBB; the top byte is not used. Images of any other type are converted to
+ * TYPE_INT_RGB once, when the raster is created.
+ */
+public class IntRaster {
+    private final BufferedImage image;
+    private final int[] data;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+
+    private IntRaster(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        this.image = image;
+        this.data = ((DataBufferInt) dataBuffer).getData();
+        this.stride = sampleModel.getScanlineStride();
+        this.offset = dataBuffer.getOffset()
+                + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+
+    /**
+     * Creates a raster view of the given image.
+     * A TYPE_INT_RGB image is accessed in place; any other image is first converted to TYPE_INT_RGB.
+     *
+     * @param image the image to access
+     * @return the raster view of the image or of its converted copy
+     */
+    public static IntRaster of(BufferedImage image) {
+        return new IntRaster(toIntRgb(image));
+    }
+
+    /**
+     * Returns the image itself if it already has the TYPE_INT_RGB layout, otherwise a converted copy.
+     *
+     * @param image the image to convert
+     * @return a TYPE_INT_RGB image with the same pixels
+     */
+    public static BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics2D = converted.createGraphics();
+        graphics2D.drawImage(image, 0, 0, null);
+        graphics2D.dispose();
+        return converted;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the index of a pixel in the backing array.
+     *
+     * @param x the x coordinate of the pixel
+     * @param y the y coordinate of the pixel
+     * @return the position of the pixel in {@link #getData()}
+     */
+    public int index(int x, int y) {
+        return offset + y * stride + x;
+    }
+
+    public int get(int x, int y) {
+        return data[offset + y * stride + x];
+    }
+
+    public void set(int x, int y, int rgb) {
+        data[offset + y * stride + x] = rgb;
+    }
+
+    /**
+     * Copies one row of pixels into an array.
+     *
+     * @param y the row to copy
+     * @return a new array with the pixels of the row
+     */
+    public int[] row(int y) {
+        int[] row = new int[width];
+        System.arraycopy(data, offset + y * stride, row, 0, width);
+        return row;
+    }
+
+    /**
+     * Copies one column of pixels into an array.
+     *
+     * @param x the column to copy
+     * @return a new array with the pixels of the column
+     */
+    public int[] column(int x) {
+        int[] column = new int[height];
+        for (int y = 0, i = offset + x; y < height; y++, i += stride) {
+            column[y] = data[i];
+        }
+        return column;
+    }
+
+    /**
+     * Copies a rectangle of this raster into another raster, one row at a time.
+     *
+     * @param srcX   the x coordinate of the rectangle in this raster
+     * @param srcY   the y coordinate of the rectangle in this raster
+     * @param width  the width of the rectangle
+     * @param height the height of the rectangle
+     * @param target the raster to copy into
+     * @param dstX   the x coordinate of the rectangle in the target raster
+     * @param dstY   the y coordinate of the rectangle in the target raster
+     */
+    public void copyTo(int srcX, int srcY, int width, int height, IntRaster target, int dstX, int dstY) {
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(data, index(srcX, srcY + y), target.data, target.index(dstX, dstY + y), width);
+        }
+    }
+
+    /**
+     * Computes a hash of the pixels of the raster. Equal pixels give equal hashes, whatever the layout
+     * of the backing arrays is.
+     *
+     * @return the content hash
+     */
+    public long contentHash() {
+        long hash = 31L * width + height;
+        for (int y = 0; y < height; y++) {
+            for (int i = index(0, y), end = i + width; i < end; i++) {
+                hash = hash * 0x9E3779B97F4A7C15L + data[i];
+            }
+        }
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Checks whether two rasters have the same size and the same pixels.
+     * The rows are compared in bulk and the comparison stops at the first different row; rasters without
+     * row padding are compared as one block.
+     *
+     * @param other the raster to compare with
+     * @return true if both rasters hold the same pixels
+     */
+    public boolean samePixelsAs(IntRaster other) {
+        if (width != other.width || height != other.height) {
+            return false;
+        }
+        if (stride == width && other.stride == other.width) {
+            int length = width * height;
+            return Arrays.mismatch(data, offset, offset + length, other.data, other.offset, other.offset + length) < 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int from = index(0, y);
+            int otherFrom = other.index(0, y);
+            if (!Arrays.equals(data, from, from + width, other.data, otherFrom, otherFrom + width)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,641 @@
+package roman.andrusiak;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IslandSolver class searches for the placement with the lowest total edge dissimilarity with an
+ * island-model genetic algorithm.
+ * <p>
+ * Every island evolves its own population on its own thread. Individuals are placements; the fitness of a
+ * placement is the sum of the {@link CompatibilityMatrix} scores of all adjacent pairs. A child is grown from
+ * a random piece, placing first the neighbors both parents agree on, then best buddies, then the best fits,
+ * so parts that both parents assembled correctly survive even when they sit at different positions. A few
+ * children are mutated by swapping two pieces or shifting the whole board. Every population starts with the
+ * placement of the greedy {@link PuzzleSolver}, so the result is never worse than the greedy one.
+ * <p>
+ * The islands run in epochs of a fixed number of generations. Between epochs every island sends its best
+ * placement to the next island, which replaces its worst one. The search stops at the first generation past
+ * the time budget, or after the epoch that reaches the generation limit. Each island draws from its own
+ * Random seeded from the solver seed, so with a generation limit and no time budget the result is
+ * deterministic.
+ */
+public class IslandSolver {
+    private static final int POPULATION = 24;
+    private static final int ELITE = 2;
+    private static final int TOURNAMENT = 3;
+    private static final int EPOCH = 20;
+    private static final double MUTATION_RATE = 0.05;
+    private static final int RANKED = 8;
+    private static final int[] ROW_STEP = {0, -1, 0, 1};
+    private static final int[] COL_STEP = {-1, 0, 1, 0};
+
+    private final CompatibilityMatrix matrix;
+    private final int rows;
+    private final int cols;
+    private final int count;
+    private final int islands;
+    private final long seed;
+    private final long budgetNanos;
+    private final int maxGenerations;
+
+    /**
+     * Creates a solver that uses one island per available processor.
+     *
+     * @param matrix       the compatibility matrix of the pieces to place
+     * @param rows         the number of rows of the puzzle
+     * @param cols         the number of columns of the puzzle
+     * @param seed         the seed of the search
+     * @param budgetMillis the time budget of the search in milliseconds
+     */
+    public IslandSolver(CompatibilityMatrix matrix, int rows, int cols, long seed, long budgetMillis) {
+        this(matrix, rows, cols, Runtime.getRuntime().availableProcessors(), seed, budgetMillis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a solver.
+     *
+     * @param matrix         the compatibility matrix of the pieces to place
+     * @param rows           the number of rows of the puzzle
+     * @param cols           the number of columns of the puzzle
+     * @param islands        the number of islands, each running on its own thread
+     * @param seed           the seed of the search
+     * @param budgetMillis   the time budget of the search in milliseconds, or Long.MAX_VALUE for none
+     * @param maxGenerations the maximum number of generations per island
+     */
+    public IslandSolver(CompatibilityMatrix matrix, int rows, int cols, int islands, long seed,
+                        long budgetMillis, int maxGenerations) {
+        if (matrix.size() != rows * cols) {
+            throw new IllegalArgumentException("Expected " + rows * cols + " pieces, got " + matrix.size());
+        }
+        this.matrix = matrix;
+        this.rows = rows;
+        this.cols = cols;
+        this.count = matrix.size();
+        this.islands = Math.max(1, islands);
+        this.seed = seed;
+        this.budgetNanos = budgetMillis >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : budgetMillis * 1_000_000;
+        this.maxGenerations = maxGenerations;
+    }
+
+    /**
+     * Computes the total dissimilarity of all adjacent pairs of a placement.
+     *
+     * @param placement the index of the piece in every slot, row by row
+     * @return the fitness, lower is better
+     */
+    public double fitness(int[] placement) {
+        double sum = 0;
+        for (int slot = 0; slot < count; slot++) {
+            int piece = placement[slot];
+            if (slot % cols != cols - 1) {
+                sum += matrix.horizontal(piece, placement[slot + 1]);
+            }
+            if (slot + cols < count) {
+                sum += matrix.vertical(piece, placement[slot + cols]);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Tells whether a placement rests on guesses: whether some adjacent pair of it does not beat the
+     * second-best partner of its pieces, i.e. scores 1 or more in a matrix normalized by
+     * {@link CompatibilityMatrix#normalizeBySecondBest()}. The greedy placement of such a board is worth
+     * improving with {@link #solve(int[])}.
+     *
+     * @param placement the index of the piece in every slot, row by row
+     * @return true if an adjacent pair is not the clear best match of its pieces
+     */
+    public boolean isAmbiguous(int[] placement) {
+        for (int slot = 0; slot < count; slot++) {
+            int piece = placement[slot];
+            if (slot % cols != cols - 1 && matrix.horizontal(piece, placement[slot + 1]) >= 1) {
+                return true;
+            }
+            if (slot + cols < count && matrix.vertical(piece, placement[slot + cols]) >= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Solves the puzzle within the time budget, starting from the placement of the greedy {@link PuzzleSolver}.
+     *
+     * @return the best placement found: element k is the index of the piece in row k / cols, column k % cols
+     * @see #solve(int[])
+     */
+    public int[] solve() {
+        return solve(new PuzzleSolver(matrix, rows, cols).solve());
+    }
+
+    /**
+     * Improves a placement within the time budget.
+     * The solver stops with a CancellationException when the calling thread is interrupted. If an island fails,
+     * the failure is reported and the greedy placement is returned; see {@link #fallBack(Throwable, int[])}.
+     *
+     * @param greedy the placement every population starts with, e.g. the one of the greedy solver
+     * @return the best placement found, never worse than the given one: element k is the index of the piece in
+     *         row k / cols, column k % cols
+     */
+    public int[] solve(int[] greedy) {
+        long deadline = budgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + budgetNanos;
+        if (count < 2) {
+            return greedy;
+        }
+        int[][][] ranked = rankPartners();
+        Island[] all = new Island[islands];
+        for (int i = 0; i < islands; i++) {
+            all[i] = new Island(greedy, ranked, new Random(seed * 31 + i));
+        }
+        boolean[] stop = new boolean[1];
+        int[] generations = new int[1];
+        CyclicBarrier barrier = new CyclicBarrier(islands, () -> {
+            generations[0] += EPOCH;
+            for (int i = 0; i < islands; i++) {
+                all[(i + 1) % islands].receive(all[i].best());
+            }
+            stop[0] = generations[0] >= maxGenerations || expired(deadline);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(islands, runnable -> {
+            Thread thread = new Thread(runnable, "island-solver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Throwable failure = null;
+        try {
+            Future<?>[] runs = new Future<?>[islands];
+            for (int i = 0; i < islands; i++) {
+                Island island = all[i];
+                runs[i] = executor.submit(() -> {
+                    try {
+                        island.populate(deadline);
+                        do {
+                            for (int g = 0; g < EPOCH && !expired(deadline); g++) {
+                                island.evolve();
+                            }
+                            barrier.await();
+                        } while (!stop[0]);
+                    } catch (RuntimeException | Error e) {
+                        barrier.reset();
+                        throw e;
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> run : runs) {
+                try {
+                    run.get();
+                } catch (ExecutionException e) {
+                    // the other islands see a broken barrier once one island fails; keep the original failure
+                    if (failure == null && !(e.getCause() instanceof BrokenBarrierException)) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Solver interrupted");
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            return fallBack(failure, greedy);
+        }
+
+        int[] best = greedy;
+        double bestFitness = fitness(greedy);
+        for (Island island : all) {
+            int[] candidate = island.best();
+            double candidateFitness = fitness(candidate);
+            if (candidateFitness < bestFitness) {
+                best = candidate;
+                bestFitness = candidateFitness;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reports a failed island search and falls back to the greedy placement, since the populations of the
+     * islands may be incomplete. Errors are rethrown, and so are runtime exceptions when assertions are enabled,
+     * as in the tests, because they are programming errors rather than a search that did not pay off.
+     */
+    private static int[] fallBack(Throwable failure, int[] greedy) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure instanceof RuntimeException && IslandSolver.class.desiredAssertionStatus()) {
+            throw (RuntimeException) failure;
+        }
+        System.err.println("Problem with island search, using the greedy placement: " + failure);
+        failure.printStackTrace();
+        return greedy;
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Ranks the best partners of every piece on every side, so children can be grown without scanning all pieces.
+     */
+    private int[][][] rankPartners() {
+        int[][][] ranked = new int[4][count][];
+        int length = Math.min(RANKED, count - 1);
+        float[] best = new float[length];
+        for (int side = 0; side < 4; side++) {
+            for (int piece = 0; piece < count; piece++) {
+                int[] partners = new int[length];
+                int size = 0;
+                for (int other = 0; other < count; other++) {
+                    if (other == piece) {
+                        continue;
+                    }
+                    float score = score(piece, side, other);
+                    if (size == length && score >= best[size - 1]) {
+                        continue;
+                    }
+                    int k = size < length ? size++ : size - 1;
+                    while (k > 0 && best[k - 1] > score) {
+                        best[k] = best[k - 1];
+                        partners[k] = partners[k - 1];
+                        k--;
+                    }
+                    best[k] = score;
+                    partners[k] = other;
+                }
+                ranked[side][piece] = partners;
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * Returns the dissimilarity of piece other placed on the given side of piece.
+     */
+    private float score(int piece, int side, int other) {
+        switch (side) {
+            case EdgeIndex.LEFT:
+                return matrix.horizontal(other, piece);
+            case EdgeIndex.RIGHT:
+                return matrix.horizontal(piece, other);
+            case EdgeIndex.TOP:
+                return matrix.vertical(other, piece);
+            default:
+                return matrix.vertical(piece, other);
+        }
+    }
+
+    private class Island {
+        private final Random random;
+        private final int[][][] ranked;
+        private final int[] greedy;
+        private int[][] population = new int[POPULATION][];
+        private double[] scores = new double[POPULATION];
+        private int[] immigrant;
+
+        private final int canvasRows = 2 * rows - 1;
+        private final int canvasCols = 2 * cols - 1;
+        private final int[] canvas = new int[canvasRows * canvasCols];
+        private final boolean[] inFrontier = new boolean[canvasRows * canvasCols];
+        private final int[] frontier = new int[canvasRows * canvasCols];
+        private int frontierSize;
+        private final boolean[] placed = new boolean[count];
+        private final int[] firstSlots = new int[count];
+        private final int[] secondSlots = new int[count];
+        private int minRow;
+        private int maxRow;
+        private int minCol;
+        private int maxCol;
+
+        Island(int[] greedy, int[][][] ranked, Random random) {
+            this.random = random;
+            this.ranked = ranked;
+            this.greedy = greedy;
+            Arrays.fill(population, greedy);
+        }
+
+        /**
+         * Fills the population with the greedy placement and children grown from shuffled placements.
+         * Once the deadline has passed, the remaining places keep the greedy placement.
+         */
+        void populate(long deadline) {
+            population[0] = greedy.clone();
+            for (int p = 1; p < POPULATION && !expired(deadline); p++) {
+                int[] individual = greedy.clone();
+                shuffle(individual);
+                population[p] = p % 2 == 0 ? individual : crossover(individual, individual);
+            }
+            for (int p = 0; p < POPULATION; p++) {
+                scores[p] = fitness(population[p]);
+            }
+            sort();
+        }
+
+        /**
+         * Returns a copy of the best placement of the island.
+         */
+        synchronized int[] best() {
+            return population[0].clone();
+        }
+
+        /**
+         * Queues a placement from another island; it replaces the worst placement in the next generation.
+         */
+        synchronized void receive(int[] placement) {
+            immigrant = placement;
+        }
+
+        void evolve() {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Solver interrupted");
+            }
+            int[][] next = new int[POPULATION][];
+            double[] nextScores = new double[POPULATION];
+            for (int p = 0; p < ELITE; p++) {
+                next[p] = population[p];
+                nextScores[p] = scores[p];
+            }
+            for (int p = ELITE; p < POPULATION; p++) {
+                int[] child = crossover(select(), select());
+                if (random.nextDouble() < MUTATION_RATE) {
+                    mutate(child);
+                }
+                next[p] = child;
+                nextScores[p] = fitness(child);
+            }
+            synchronized (this) {
+                if (immigrant != null) {
+                    next[POPULATION - 1] = immigrant;
+                    nextScores[POPULATION - 1] = fitness(immigrant);
+                    immigrant = null;
+                }
+                population = next;
+                scores = nextScores;
+                sort();
+            }
+        }
+
+        private int[] select() {
+            int best = random.nextInt(POPULATION);
+            for (int t = 1; t < TOURNAMENT; t++) {
+                int other = random.nextInt(POPULATION);
+                if (scores[other] < scores[best]) {
+                    best = other;
+                }
+            }
+            return population[best];
+        }
+
+        /**
+         * Grows a child from a random piece. Every step fills one free slot next to the grown part, preferring
+         * in turn a neighbor that both parents agree on, a best buddy, and the best-scoring unplaced piece.
+         * Parts that are correct in both parents are inherited as a whole, wherever they lie on the board.
+         */
+        private int[] crossover(int[] first, int[] second) {
+            Arrays.fill(canvas, -1);
+            Arrays.fill(inFrontier, false);
+            Arrays.fill(placed, false);
+            frontierSize = 0;
+            for (int slot = 0; slot < count; slot++) {
+                firstSlots[first[slot]] = slot;
+                secondSlots[second[slot]] = slot;
+            }
+            minRow = maxRow = rows - 1;
+            minCol = maxCol = cols - 1;
+            place(random.nextInt(count), (rows - 1) * canvasCols + cols - 1);
+            for (int placedCount = 1; placedCount < count; placedCount++) {
+                if (!placeAgreed(first, second) && !placeBestBuddy() && !placeBestFit()) {
+                    break;
+                }
+            }
+            return readPlacement();
+        }
+
+        private boolean placeAgreed(int[] first, int[] second) {
+            int offset = frontierSize == 0 ? 0 : random.nextInt(frontierSize);
+            for (int f = 0; f < frontierSize; f++) {
+                int slot = frontier[(f + offset) % frontierSize];
+                for (int side = 0; side < 4; side++) {
+                    int piece = pieceNextTo(slot, side);
+                    if (piece == -1) {
+                        continue;
+                    }
+                    int towards = (side + 2) % 4;
+                    int agreed = parentNeighbor(first, firstSlots, piece, towards);
+                    if (agreed != -1 && !placed[agreed] && agreed == parentNeighbor(second, secondSlots, piece, towards)) {
+                        place(agreed, slot);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean placeBestBuddy() {
+            int offset = frontierSize == 0 ? 0 : random.nextInt(frontierSize);
+            for (int f = 0; f < frontierSize; f++) {
+                int slot = frontier[(f + offset) % frontierSize];
+                for (int side = 0; side < 4; side++) {
+                    int piece = pieceNextTo(slot, side);
+                    if (piece == -1) {
+                        continue;
+                    }
+                    int towards = (side + 2) % 4;
+                    int buddy = ranked[towards][piece][0];
+                    if (!placed[buddy] && ranked[side][buddy][0] == piece) {
+                        place(buddy, slot);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean placeBestFit() {
+            int bestSlot = -1;
+            int bestPiece = -1;
+            float bestScore = Float.MAX_VALUE;
+            for (int f = 0; f < frontierSize; f++) {
+                int slot = frontier[f];
+                for (int side = 0; side < 4; side++) {
+                    int piece = pieceNextTo(slot, side);
+                    if (piece == -1) {
+                        continue;
+                    }
+                    int towards = (side + 2) % 4;
+                    for (int partner : ranked[towards][piece]) {
+                        if (!placed[partner]) {
+                            float score = score(piece, towards, partner);
+                            if (score < bestScore) {
+                                bestScore = score;
+                                bestSlot = slot;
+                                bestPiece = partner;
+                            }
+                            break;
+                        }
+                    }
+                }
+                if (bestSlot == -1) {
+                    bestSlot = slot;
+                }
+            }
+            if (bestSlot == -1) {
+                return false;
+            }
+            if (bestPiece == -1) {
+                int start = random.nextInt(count);
+                for (int k = 0; k < count && bestPiece == -1; k++) {
+                    if (!placed[(start + k) % count]) {
+                        bestPiece = (start + k) % count;
+                    }
+                }
+            }
+            place(bestPiece, bestSlot);
+            return true;
+        }
+
+        /**
+         * Returns the piece next to a piece in a parent placement, or -1 at the border of the board.
+         */
+        private int parentNeighbor(int[] parent, int[] slots, int piece, int side) {
+            int slot = slots[piece];
+            int row = slot / cols + ROW_STEP[side];
+            int col = slot % cols + COL_STEP[side];
+            if (row < 0 || row >= rows || col < 0 || col >= cols) {
+                return -1;
+            }
+            return parent[row * cols + col];
+        }
+
+        /**
+         * Returns the piece on the given side of a canvas slot, or -1.
+         */
+        private int pieceNextTo(int slot, int side) {
+            int row = slot / canvasCols + ROW_STEP[side];
+            int col = slot % canvasCols + COL_STEP[side];
+            if (row < 0 || row >= canvasRows || col < 0 || col >= canvasCols) {
+                return -1;
+            }
+            return canvas[row * canvasCols + col];
+        }
+
+        private void place(int piece, int slot) {
+            int row = slot / canvasCols;
+            int col = slot % canvasCols;
+            canvas[slot] = piece;
+            placed[piece] = true;
+            minRow = Math.min(minRow, row);
+            maxRow = Math.max(maxRow, row);
+            minCol = Math.min(minCol, col);
+            maxCol = Math.max(maxCol, col);
+            for (int side = 0; side < 4; side++) {
+                int nextRow = row + ROW_STEP[side];
+                int nextCol = col + COL_STEP[side];
+                if (nextRow >= 0 && nextRow < canvasRows && nextCol >= 0 && nextCol < canvasCols) {
+                    int next = nextRow * canvasCols + nextCol;
+                    if (canvas[next] == -1 && !inFrontier[next]) {
+                        inFrontier[next] = true;
+                        frontier[frontierSize++] = next;
+                    }
+                }
+            }
+            for (int f = frontierSize - 1; f >= 0; f--) {
+                int free = frontier[f];
+                if (canvas[free] != -1 || !admissible(free / canvasCols, free % canvasCols)) {
+                    frontier[f] = frontier[--frontierSize];
+                }
+            }
+        }
+
+        private boolean admissible(int row, int col) {
+            return Math.max(maxRow, row) - Math.min(minRow, row) < rows
+                    && Math.max(maxCol, col) - Math.min(minCol, col) < cols;
+        }
+
+        private int[] readPlacement() {
+            int[] placement = new int[count];
+            int top = Math.min(minRow, canvasRows - rows);
+            int left = Math.min(minCol, canvasCols - cols);
+            int nextFree = 0;
+            for (int k = 0; k < count; k++) {
+                int piece = canvas[(top + k / cols) * canvasCols + left + k % cols];
+                if (piece == -1) {
+                    while (placed[nextFree]) {
+                        nextFree++;
+                    }
+                    piece = nextFree;
+                    placed[piece] = true;
+                }
+                placement[k] = piece;
+            }
+            return placement;
+        }
+
+        private void mutate(int[] placement) {
+            if (random.nextBoolean()) {
+                swap(placement, random.nextInt(count), random.nextInt(count));
+            } else {
+                shift(placement);
+            }
+        }
+
+        /**
+         * Shifts the whole board cyclically, which moves the seams between correctly assembled parts.
+         */
+        private void shift(int[] placement) {
+            int down = random.nextInt(rows);
+            int right = random.nextInt(cols);
+            int[] original = placement.clone();
+            for (int slot = 0; slot < count; slot++) {
+                int row = (slot / cols + down) % rows;
+                int col = (slot % cols + right) % cols;
+                placement[row * cols + col] = original[slot];
+            }
+        }
+
+        private void shuffle(int[] placement) {
+            for (int i = placement.length - 1; i > 0; i--) {
+                swap(placement, i, random.nextInt(i + 1));
+            }
+        }
+
+        private void swap(int[] placement, int first, int second) {
+            int temp = placement[first];
+            placement[first] = placement[second];
+            placement[second] = temp;
+        }
+
+        private void sort() {
+            Integer[] order = new Integer[POPULATION];
+            for (int p = 0; p < POPULATION; p++) {
+                order[p] = p;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(scores[a], scores[b]));
+            int[][] sortedPopulation = new int[POPULATION][];
+            double[] sortedScores = new double[POPULATION];
+            for (int p = 0; p < POPULATION; p++) {
+                sortedPopulation[p] = population[order[p]];
+                sortedScores[p] = scores[order[p]];
+            }
+            population = sortedPopulation;
+            scores = sortedScores;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package roman.andrusiak;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Metrics class is an in-process registry of counters and latency histograms.
+ * <p>
+ * The pipeline stages of {@link ImageManager} report through {@link #time}, which records the latency of
+ * the stage, counts its calls and the bytes allocated by the calling thread, and emits a {@link StageEvent}
+ * for Flight Recorder. The registry can be written as JSON with {@link #toJson()}; with the puzzle.metrics
+ * system property set to a file name (or "-" for standard error) the app and the batch solver write it on exit.
+ */
+public class Metrics {
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A monotonically growing count.
+     */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A latency histogram with one bucket per power of two nanoseconds.
+     * Percentiles are reported as the upper bound of their bucket, so they are accurate within a factor of two.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+            count.increment();
+            sum.add(nanos);
+            min.accumulate(nanos);
+            max.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the upper bound of the bucket that holds the given percentile.
+         *
+         * @param percentile the percentile, from 0 to 100
+         * @return the latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public long percentile(double percentile) {
+            long total = 0;
+            long[] counts = new long[buckets.length()];
+            for (int b = 0; b < counts.length; b++) {
+                counts[b] = buckets.get(b);
+                total += counts[b];
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank && counts[b] > 0) {
+                    return Math.min(b >= 62 ? Long.MAX_VALUE : (2L << b) - 1, max.get());
+                }
+            }
+            return 0;
+        }
+
+        String toJson() {
+            long n = count.sum();
+            return "{\"count\":" + n
+                    + ",\"meanMs\":" + millis(n == 0 ? 0 : sum.sum() / n)
+                    + ",\"minMs\":" + millis(n == 0 ? 0 : min.get())
+                    + ",\"p50Ms\":" + millis(percentile(50))
+                    + ",\"p90Ms\":" + millis(percentile(90))
+                    + ",\"p99Ms\":" + millis(percentile(99))
+                    + ",\"maxMs\":" + millis(max.get())
+                    + "}";
+        }
+    }
+
+    /**
+     * The body of a timed stage that returns a value.
+     *
+     * @param <T> the type of the result
+     * @param <E> the type of the exception the body may throw
+     */
+    public interface Timed<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * The body of a timed stage that returns nothing.
+     *
+     * @param <E> the type of the exception the body may throw
+     */
+    public interface TimedAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * A running pipeline stage. Closing it records the stage; prefer {@link #time} where the body fits in a lambda.
+     */
+    public static class Stage implements AutoCloseable {
+        private final String name;
+        private final StageEvent event = new StageEvent();
+        private final long start;
+        private final long startAllocated;
+
+        private Stage(String name, int rows, int cols, int pieces) {
+            this.name = name;
+            event.stage = name;
+            event.rows = rows;
+            event.cols = cols;
+            event.pieces = pieces;
+            event.begin();
+            startAllocated = allocatedBytes();
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+            event.end();
+            histogram(name).record(nanos);
+            counter(name + ".calls").increment();
+            if (allocated >= 0) {
+                counter(name + ".allocatedBytes").add(allocated);
+            }
+            if (event.shouldCommit()) {
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Starts timing a pipeline stage.
+     *
+     * @param name   the name of the stage
+     * @param rows   the number of rows of the puzzle, or 0 if the stage has no grid
+     * @param cols   the number of columns of the puzzle, or 0 if the stage has no grid
+     * @param pieces the number of pieces the stage works on
+     * @return the running stage, to be closed when the stage ends
+     */
+    public static Stage stage(String name, int rows, int cols, int pieces) {
+        return new Stage(name, rows, cols, pieces);
+    }
+
+    /**
+     * Runs a pipeline stage and records it, also when the body throws.
+     *
+     * @param name   the name of the stage
+     * @param rows   the number of rows of the puzzle, or 0 if the stage has no grid
+     * @param cols   the number of columns of the puzzle, or 0 if the stage has no grid
+     * @param pieces the number of pieces the stage works on
+     * @param body   the work of the stage
+     * @return the result of the body
+     * @throws E if the body throws it
+     */
+    public static <T, E extends Exception> T time(String name, int rows, int cols, int pieces, Timed<T, E> body)
+            throws E {
+        Stage stage = stage(name, rows, cols, pieces);
+        try {
+            return body.call();
+        } finally {
+            stage.close();
+        }
+    }
+
+    /**
+     * Runs a pipeline stage that returns nothing and records it, also when the body throws.
+     *
+     * @param name   the name of the stage
+     * @param rows   the number of rows of the puzzle, or 0 if the stage has no grid
+     * @param cols   the number of columns of the puzzle, or 0 if the stage has no grid
+     * @param pieces the number of pieces the stage works on
+     * @param body   the work of the stage
+     * @throws E if the body throws it
+     */
+    public static <E extends Exception> void time(String name, int rows, int cols, int pieces, TimedAction<E> body)
+            throws E {
+        Stage stage = stage(name, rows, cols, pieces);
+        try {
+            body.run();
+        } finally {
+            stage.close();
+        }
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far.
+     *
+     * @return the allocated bytes, or -1 if the JVM does not track them
+     */
+    public static long allocatedBytes() {
+        return ALLOCATIONS != null ? ALLOCATIONS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    public static void reset() {
+        COUNTERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /**
+     * Writes all counters and histograms as one JSON object.
+     *
+     * @return the JSON text
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(':').append(entry.getValue().get());
+            separator = ",";
+        }
+        json.append("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(':').append(entry.getValue().toJson());
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Writes the registry as JSON when the JVM exits, if the puzzle.metrics system property names a target.
+     */
+    public static void dumpOnExit() {
+        String target = System.getProperty("puzzle.metrics");
+        if (target == null) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(target), "metrics-dump"));
+    }
+
+    private static void dump(String target) {
+        String json = toJson();
+        if (target.equals("-")) {
+            System.err.println(json);
+            return;
+        }
+        try {
+            Files.write(new File(target).toPath(), (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Problem with metrics saving" + e.getMessage());
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Quotes a string as a JSON string literal, escaping quotes, backslashes and control characters.
+     */
+    static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,259 @@
+package roman.andrusiak;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The PieceStore class keeps the precomputed pieces of one puzzle in a binary file that is read back
+ * through a memory mapping.
+ * <p>
+ * The file holds a header (magic, version, rows, cols, tile width, tile height, matrix flag), the pixels of
+ * every tile as 0xRRGGBB ints, the border and inner strips of every piece in {@link EdgeIndex} order and,
+ * optionally, the horizontal and vertical scores of a {@link CompatibilityMatrix}. Opening a store maps the
+ * file, so a cold start pages the data in instead of decoding, splitting and scoring the image again.
+ * The edge strips and the scores are read straight from the mapping; the pixels are read in one bulk copy
+ * into TYPE_INT_RGB pieces, which {@link IntRaster} then accesses in place.
+ */
+public class PieceStore {
+    private static final int MAGIC = 0x50535431;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 7;
+
+    private final int rows;
+    private final int cols;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final boolean hasMatrix;
+    private final IntBuffer ints;
+
+    private PieceStore(MappedByteBuffer buffer) {
+        ints = buffer.asIntBuffer();
+        rows = ints.get(2);
+        cols = ints.get(3);
+        tileWidth = ints.get(4);
+        tileHeight = ints.get(5);
+        hasMatrix = ints.get(6) != 0;
+    }
+
+    /**
+     * Writes the pieces of a puzzle to a store file.
+     *
+     * @param file   the file to write
+     * @param pieces the pieces in their solved order, all of the same size
+     * @param rows   the number of rows of the puzzle
+     * @param cols   the number of columns of the puzzle
+     * @param matrix the compatibility matrix of the pieces, or null to leave it out
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, BufferedImage[] pieces, int rows, int cols, CompatibilityMatrix matrix)
+            throws IOException {
+        int count = pieces.length;
+        int tileWidth = pieces[0].getWidth();
+        int tileHeight = pieces[0].getHeight();
+        Puzzle[] puzzles = new Puzzle[count];
+        for (int i = 0; i < count; i++) {
+            puzzles[i] = new Puzzle(pieces[i], i);
+        }
+        EdgeIndex edges = new EdgeIndex(puzzles);
+        long size = storeSize(count, tileWidth, tileHeight, matrix != null);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Piece store too large to map: " + size + " bytes");
+        }
+        file.delete();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"); FileChannel channel = out.getChannel()) {
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).asIntBuffer();
+            ints.put(MAGIC).put(VERSION).put(rows).put(cols).put(tileWidth).put(tileHeight).put(matrix != null ? 1 : 0);
+            for (BufferedImage piece : pieces) {
+                IntRaster raster = IntRaster.of(piece);
+                for (int y = 0; y < tileHeight; y++) {
+                    ints.put(raster.getData(), raster.index(0, y), tileWidth);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                for (int side = 0; side < 4; side++) {
+                    ints.put(edges.border(i, side));
+                    ints.put(edges.inner(i, side));
+                }
+            }
+            if (matrix != null) {
+                FloatBuffer floats = channel.map(FileChannel.MapMode.READ_WRITE, 4L * ints.position(),
+                        8L * count * count).asFloatBuffer();
+                for (int i = 0; i < count; i++) {
+                    for (int j = 0; j < count; j++) {
+                        floats.put(matrix.horizontal(i, j));
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    for (int j = 0; j < count; j++) {
+                        floats.put(matrix.vertical(i, j));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a store file by mapping it read-only.
+     *
+     * @param file the file to open
+     * @return the opened store
+     * @throws IOException if the file cannot be read, is not a piece store or is not as long as its header says
+     */
+    public static PieceStore open(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            checkHeader(channel, file);
+            return new PieceStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads the header of a store file and checks it against the length of the file before the file is mapped,
+     * so a truncated or foreign file fails here instead of with a BufferUnderflowException in a later read.
+     */
+    private static void checkHeader(FileChannel channel, File file) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(4 * HEADER_INTS);
+        if (fileSize < header.capacity()) {
+            throw new IOException("Not a piece store: " + file);
+        }
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Not a piece store: " + file);
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a piece store: " + file);
+        }
+        int rows = header.getInt();
+        int cols = header.getInt();
+        int tileWidth = header.getInt();
+        int tileHeight = header.getInt();
+        int matrixFlag = header.getInt();
+        if (rows <= 0 || cols <= 0 || tileWidth <= 0 || tileHeight <= 0 || (matrixFlag & ~1) != 0) {
+            throw new IOException("Corrupt piece store header: " + file);
+        }
+        long expected;
+        try {
+            expected = storeSize((long) rows * cols, tileWidth, tileHeight, matrixFlag != 0);
+        } catch (ArithmeticException e) {
+            throw new IOException("Corrupt piece store header: " + file);
+        }
+        if (expected != fileSize) {
+            throw new IOException("Piece store " + file + " has " + fileSize + " bytes, its header describes "
+                    + expected);
+        }
+    }
+
+    /**
+     * Returns the length in bytes of a store with the given pieces.
+     *
+     * @throws ArithmeticException if the length does not fit in a long
+     */
+    private static long storeSize(long count, int tileWidth, int tileHeight, boolean hasMatrix) {
+        long pixels = Math.multiplyExact(count, (long) tileWidth * tileHeight);
+        long strips = Math.multiplyExact(count, 4L * (tileWidth + tileHeight));
+        long scores = hasMatrix ? Math.multiplyExact(2 * count, count) : 0;
+        long ints = Math.addExact(Math.addExact(Math.addExact(HEADER_INTS, pixels), strips), scores);
+        return Math.multiplyExact(4L, ints);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int size() {
+        return rows * cols;
+    }
+
+    public boolean hasMatrix() {
+        return hasMatrix;
+    }
+
+    /**
+     * Creates the pieces of the store in their solved order, labeled with their index.
+     * The pixels of all pieces are copied from the mapping into one array in a single bulk read; every piece is
+     * a TYPE_INT_RGB image over its part of that array, so {@link IntRaster#of} and the content hashes do not
+     * convert them. Use {@link #edgeIndex()} rather than building an {@link EdgeIndex} from the pieces.
+     *
+     * @return the puzzle pieces
+     */
+    public Puzzle[] puzzles() {
+        int tileInts = tileWidth * tileHeight;
+        int[] pixels = new int[size() * tileInts];
+        ints.duplicate().position(HEADER_INTS).get(pixels);
+        DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        SinglePixelPackedSampleModel sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT,
+                tileWidth, tileHeight, colorModel.getMasks());
+        Puzzle[] puzzles = new Puzzle[size()];
+        for (int i = 0; i < puzzles.length; i++) {
+            DataBufferInt tile = new DataBufferInt(pixels, tileInts, i * tileInts);
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, tile, null);
+            puzzles[i] = new Puzzle(new BufferedImage(colorModel, raster, false, null), i);
+        }
+        return puzzles;
+    }
+
+    /**
+     * Reads the stored edge strips into an edge index.
+     *
+     * @return the edge index of the pieces
+     */
+    public EdgeIndex edgeIndex() {
+        int count = size();
+        int[][][] borders = new int[4][count][];
+        int[][][] inners = new int[4][count][];
+        IntBuffer edges = ints.duplicate().position(HEADER_INTS + count * tileWidth * tileHeight);
+        for (int i = 0; i < count; i++) {
+            for (int side = 0; side < 4; side++) {
+                int length = side == EdgeIndex.LEFT || side == EdgeIndex.RIGHT ? tileHeight : tileWidth;
+                borders[side][i] = new int[length];
+                inners[side][i] = new int[length];
+                edges.get(borders[side][i]);
+                edges.get(inners[side][i]);
+            }
+        }
+        return new EdgeIndex(borders, inners);
+    }
+
+    /**
+     * Reads the stored compatibility matrix.
+     *
+     * @return the matrix
+     * @throws IllegalStateException if the store was written without a matrix
+     */
+    public CompatibilityMatrix matrix() {
+        if (!hasMatrix) {
+            throw new IllegalStateException("The piece store has no compatibility matrix");
+        }
+        int count = size();
+        int offset = HEADER_INTS + count * tileWidth * tileHeight + count * 4 * (tileWidth + tileHeight);
+        IntBuffer scores = ints.duplicate().position(offset);
+        float[] horizontal = new float[count * count];
+        float[] vertical = new float[count * count];
+        for (int k = 0; k < horizontal.length; k++) {
+            horizontal[k] = Float.intBitsToFloat(scores.get());
+        }
+        for (int k = 0; k < vertical.length; k++) {
+            vertical[k] = Float.intBitsToFloat(scores.get());
+        }
+        return new CompatibilityMatrix(count, horizontal, vertical);
+    }
+}
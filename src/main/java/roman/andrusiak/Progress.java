@@ -0,0 +1,21 @@
+package roman.andrusiak;
+
+/**
+ * The Progress interface receives the progress of the long-running stages of a solve: the scoring of the
+ * {@link CompatibilityMatrix}, the placement of the {@link PuzzleSolver} and the {@link IslandSolver} search.
+ * The scoring reports from the workers of its pool, so an implementation must be thread-safe.
+ */
+public interface Progress {
+    String SCORE = "score";
+    String PLACE = "place";
+    String SEARCH = "search";
+
+    /**
+     * Called as a stage advances.
+     *
+     * @param stage one of {@link #SCORE}, {@link #PLACE} and {@link #SEARCH}
+     * @param done  the units of work of the stage that are done
+     * @param total the units of work of the whole stage
+     */
+    void update(String stage, long done, long total);
+}
@@ -2,58 +2,176 @@ package roman.andrusiak;
 
 import java.awt.image.BufferedImage;
 
+/**
+ * The Puzzle class is one piece of a puzzle.
+ * <p>
+ * A standalone piece keeps its image, its original position and its neighbor links in plain fields.
+ * A piece returned by {@link Board#puzzle(int)} is a view of one tile of a board instead: it reads and writes
+ * the primitive arrays of the board, so links between views of the same board are stored there as tile ids.
+ * Any piece can still be linked with a piece of another board or with a standalone piece; such links are
+ * kept in the piece itself. The board and the tile of a view never change, and two views of the same tile
+ * are equal; standalone pieces are only equal to themselves.
+ */
 public class Puzzle {
-    private Puzzle puzzleLeft;
-    private Puzzle puzzleUp;
-    private Puzzle puzzleRight;
-    private Puzzle puzzleDown;
+    private static final int SIDES = 4;
+
+    private final Board board;
+    private final int tile;
+    private final int originalIndex;
     private BufferedImage image;
+    private Puzzle[] links;
+    private volatile long contentHash;
+    private volatile boolean contentHashed;
 
     public Puzzle(BufferedImage image) {
-        this.puzzleLeft = null;
-        this.puzzleDown = null;
-        this.puzzleRight = null;
-        this.puzzleUp = null;
+        this(image, -1);
+    }
+
+    /**
+     * Creates a standalone puzzle piece that knows its position in the solved puzzle.
+     *
+     * @param image         the image of the piece
+     * @param originalIndex the index of the piece in the solved puzzle, or -1 if it is unknown
+     */
+    public Puzzle(BufferedImage image, int originalIndex) {
+        this.board = null;
+        this.tile = Board.NONE;
         this.image = image;
+        this.originalIndex = originalIndex;
+    }
+
+    Puzzle(Board board, int tile) {
+        this.board = board;
+        this.tile = tile;
+        this.originalIndex = board.getOriginalIndex(tile);
+    }
+
+    /**
+     * Returns the board this piece is a view of.
+     *
+     * @return the board, or null for a standalone piece
+     */
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * Returns the tile id of this piece on its board.
+     *
+     * @return the tile id, or {@link Board#NONE} for a standalone piece
+     */
+    public int getTile() {
+        return tile;
+    }
+
+    Puzzle getNeighbor(int side) {
+        if (links != null && links[side] != null) {
+            return links[side];
+        }
+        if (board == null) {
+            return null;
+        }
+        int neighbor = board.getNeighbor(tile, side);
+        return neighbor == Board.NONE ? null : board.puzzle(neighbor);
+    }
+
+    private void setNeighbor(int side, Puzzle neighbor) {
+        boolean sameBoard = board != null && neighbor != null && neighbor.board == board;
+        if (board != null) {
+            board.setNeighbor(tile, side, sameBoard ? neighbor.tile : Board.NONE);
+        }
+        if (!sameBoard && neighbor != null && links == null) {
+            links = new Puzzle[SIDES];
+        }
+        if (links != null) {
+            links[side] = sameBoard ? null : neighbor;
+        }
     }
 
     public Puzzle getPuzzleLeft() {
-        return puzzleLeft;
+        return getNeighbor(EdgeIndex.LEFT);
     }
 
     public void setPuzzleLeft(Puzzle puzzleLeft) {
-        this.puzzleLeft = puzzleLeft;
+        setNeighbor(EdgeIndex.LEFT, puzzleLeft);
     }
 
     public Puzzle getPuzzleUp() {
-        return puzzleUp;
+        return getNeighbor(EdgeIndex.TOP);
     }
 
     public void setPuzzleUp(Puzzle puzzleUp) {
-        this.puzzleUp = puzzleUp;
+        setNeighbor(EdgeIndex.TOP, puzzleUp);
     }
 
     public Puzzle getPuzzleRight() {
-        return puzzleRight;
+        return getNeighbor(EdgeIndex.RIGHT);
     }
 
     public void setPuzzleRight(Puzzle puzzleRight) {
-        this.puzzleRight = puzzleRight;
+        setNeighbor(EdgeIndex.RIGHT, puzzleRight);
     }
 
     public Puzzle getPuzzleDown() {
-        return puzzleDown;
+        return getNeighbor(EdgeIndex.BOTTOM);
     }
 
     public void setPuzzleDown(Puzzle puzzleDown) {
-        this.puzzleDown = puzzleDown;
+        setNeighbor(EdgeIndex.BOTTOM, puzzleDown);
+    }
+
+    public int getOriginalIndex() {
+        return originalIndex;
+    }
+
+    public boolean isLabeled() {
+        return originalIndex != -1;
+    }
+
+    /**
+     * Returns a hash of the pixels of the piece. The hash is computed on the first call and kept
+     * until the image is replaced.
+     *
+     * @return the content hash of the piece image
+     */
+    public long getContentHash() {
+        if (board != null) {
+            return board.getContentHash(tile);
+        }
+        if (!contentHashed) {
+            contentHash = IntRaster.of(image).contentHash();
+            contentHashed = true;
+        }
+        return contentHash;
     }
 
     public BufferedImage getImage() {
-        return image;
+        return board != null ? board.getImage(tile) : image;
     }
 
     public void setImage(BufferedImage image) {
-        this.image = image;
+        if (board != null) {
+            board.setImage(tile, image);
+        } else {
+            this.image = image;
+            contentHashed = false;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Puzzle) || board == null) {
+            return false;
+        }
+        Puzzle other = (Puzzle) o;
+        return board == other.board && tile == other.tile;
+    }
+
+    @Override
+    public int hashCode() {
+        return board == null ? System.identityHashCode(this) : System.identityHashCode(board) * 31 + tile;
     }
 }
@@ -1,5 +1,6 @@
 package roman.andrusiak;
 
+import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -8,25 +9,34 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The PuzzleApp class represents a JFrame-based puzzle application.
  * It allows users to solve a puzzle by swapping puzzle pieces until the correct image is formed.
+ * <p>
+ * The puzzle is either cut from an image file, so every piece knows its position, or read from a directory of
+ * piece images, whose positions are unknown; the arrangement of such pieces is checked against the order
+ * found by the solver on the {@link SolveService}.
  */
 public class PuzzleApp extends JFrame {
-    private Puzzle[] puzzles;
-    private JButton[] puzzleButtons;
+    private Board board;
+    private BoardCanvas boardCanvas;
     private int firstSelectedIndex = -1;
     private int secondSelectedIndex = -1;
+    private final SolveService solveService = new SolveService();
+    private JButton checkButton;
+    private CompletableFuture<Boolean> pendingCheck;
+    private boolean labeled;
+    private int correctCount;
 
     public PuzzleApp() throws IOException {
         setTitle("Puzzle App");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         String filename = "";
         JPanel filePanel = new JPanel();
-        JLabel fileLabel = new JLabel("Enter image filename: ");
+        JLabel fileLabel = new JLabel("Enter image filename or directory of pieces: ");
         JTextField fileTextField = new JTextField(20);
         filePanel.add(fileLabel);
         filePanel.add(fileTextField);
@@ -39,65 +49,84 @@ public class PuzzleApp extends JFrame {
             }
         }
 
-        puzzles = new Puzzle[16];
-        puzzleButtons = new JButton[16];
-        JPanel puzzlePanel = new JPanel(new GridBagLayout());
-        GridBagConstraints constraints = new GridBagConstraints();
-        BufferedImage[] images = ImageManager.splitImage(ImageManager.resizeImage(filename));
-        List<BufferedImage> imgList = Arrays.asList(images);
-        Collections.shuffle(imgList);
-        imgList.toArray(images);
-        for (int i = 0; i < 16; i++) {
-            puzzles[i] = new Puzzle(images[i]);
-            puzzleButtons[i] = new JButton(new ImageIcon(images[i]));
-            puzzleButtons[i].addActionListener(new PuzzleButtonListener(i));
-            int imageWidth = images[i].getWidth();
-            int imageHeight = images[i].getHeight();
-            int buttonWidth = imageWidth + 10;
-            int buttonHeight = imageHeight + 10;
-            puzzleButtons[i].setPreferredSize(new Dimension(buttonWidth, buttonHeight));
-            constraints.gridx = i % 4;
-            constraints.gridy = i / 4;
-            constraints.weightx = 1;
-            constraints.weighty = 1;
-            puzzlePanel.add(puzzleButtons[i], constraints);
+        File source = new File(filename);
+        if (source.isDirectory()) {
+            int[] unknown = new int[ImageManager.NumPuzzles];
+            Arrays.fill(unknown, Board.NONE);
+            board = new Board(readPieces(source), unknown, ImageManager.ROWS, ImageManager.COLS);
+        } else {
+            BufferedImage[] images = ImageManager.splitImage(ImageManager.resizeImage(filename));
+            board = new Board(images, ImageManager.ROWS, ImageManager.COLS);
         }
-        JButton checkButton = new JButton("Check");
+        board.shuffle(new Random());
+        countCorrectPuzzles();
+        boardCanvas = new BoardCanvas(board);
+        boardCanvas.addSlotListener(new PuzzleSlotListener());
+        checkButton = new JButton("Check");
         checkButton.addActionListener(new CheckButtonListener());
+        JPanel puzzlePanel = new JPanel(new GridBagLayout());
+        puzzlePanel.add(boardCanvas);
         puzzlePanel.add(checkButton);
         add(puzzlePanel);
-        puzzlePanel.setPreferredSize(new Dimension(1330, 1024));
         pack();
         setLocationRelativeTo(null);
     }
 
     /**
-     * ActionListener implementation for puzzle buttons.
-     * Handles the puzzle button clicks and manages the selection and swapping of puzzles.
+     * Reads the pieces of a puzzle from the image files of a directory, in the order of their names.
+     *
+     * @param directory the directory with one image file per piece
+     * @return the images of the pieces
+     * @throws IOException if a file cannot be read, or the pieces do not make a puzzle of the app's grid
      */
-    private class PuzzleButtonListener implements ActionListener {
-        private int index;
-
-        public PuzzleButtonListener(int index) {
-            this.index = index;
+    private static BufferedImage[] readPieces(File directory) throws IOException {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            throw new IOException("Cannot list the pieces in " + directory);
+        }
+        Arrays.sort(files);
+        BufferedImage[] pieces = new BufferedImage[ImageManager.NumPuzzles];
+        int count = 0;
+        for (File file : files) {
+            BufferedImage piece = ImageIO.read(file);
+            if (piece == null) {
+                continue;
+            }
+            if (count == pieces.length) {
+                throw new IOException("More than " + pieces.length + " pieces in " + directory);
+            }
+            if (count > 0 && (piece.getWidth() != pieces[0].getWidth() || piece.getHeight() != pieces[0].getHeight())) {
+                throw new IOException("Piece " + file.getName() + " differs in size from the first piece");
+            }
+            pieces[count++] = piece;
         }
+        if (count != pieces.length) {
+            throw new IOException("Expected " + pieces.length + " pieces in " + directory + ", found " + count);
+        }
+        return pieces;
+    }
 
+    /**
+     * SlotListener implementation for the board canvas.
+     * Handles the clicks on puzzle pieces and manages the selection and swapping of puzzles.
+     */
+    private class PuzzleSlotListener implements BoardCanvas.SlotListener {
         /**
-         * Handles the actionPerformed event when a puzzle button is clicked.
-         * If no puzzle is selected, sets the current puzzle as the first selected puzzle and highlights it.
-         * If one puzzle is already selected, sets the current puzzle as the second selected puzzle,
-         * swaps the puzzles, clears the selection, and updates the button icons.
+         * Handles a click on a slot of the board.
+         * If no puzzle is selected, sets the clicked puzzle as the first selected puzzle and highlights it.
+         * If one puzzle is already selected, sets the clicked puzzle as the second selected puzzle,
+         * swaps the puzzles and clears the selection.
          *
-         * @param e The ActionEvent representing the button click.
+         * @param slot The index of the clicked slot.
          */
         @Override
-        public void actionPerformed(ActionEvent e) {
+        public void slotClicked(int slot) {
             if (firstSelectedIndex == -1) {
-                firstSelectedIndex = index;
-                puzzleButtons[firstSelectedIndex].setBorder(BorderFactory.createLineBorder(Color.RED, 3));
+                firstSelectedIndex = slot;
+                boardCanvas.setSelected(firstSelectedIndex, true);
             } else if (secondSelectedIndex == -1) {
-                secondSelectedIndex = index;
-                puzzleButtons[secondSelectedIndex].setBorder(BorderFactory.createLineBorder(Color.RED, 3));
+                secondSelectedIndex = slot;
+                boardCanvas.setSelected(secondSelectedIndex, true);
                 swapPuzzles();
                 clearSelection();
             }
@@ -105,65 +134,91 @@ public class PuzzleApp extends JFrame {
     }
 
     /**
-     * ActionListener implementation for puzzle buttons.
-     * Handles the puzzle button clicks and manages the selection and swapping of puzzles.
+     * ActionListener implementation for the check button.
+     * Starts an asynchronous check of the current arrangement on the {@link SolveService}.
      */
     private class CheckButtonListener implements ActionListener {
         /**
-         * Handles the actionPerformed event when a puzzle button is clicked.
-         * If no puzzle is selected, sets the current puzzle as the first selected puzzle and highlights it.
-         * If one puzzle is already selected, sets the current puzzle as the second selected puzzle,
-         * swaps the puzzles, clears the selection, and updates the button icons.
+         * Handles the actionPerformed event when the check button is clicked.
+         * When every piece knows its original position, the answer comes from the count of correctly
+         * placed pieces. The pieces of a directory do not, so their check runs the solver off the event dispatch
+         * thread and reports its progress on the button. Clicks during a running check join the running check instead of starting a new one.
          *
          * @param e The ActionEvent representing the button click.
          */
         @Override
         public void actionPerformed(ActionEvent e) {
-            BufferedImage ourImage = ImageManager.collectImages(puzzles);
-            Puzzle[] puzzlesCopy = puzzles;
-            puzzlesCopy = ImageManager.fillCompares(puzzles);
-            try {
-                puzzlesCopy = ImageManager.sortPuzzle(puzzlesCopy);
-            } catch (NullPointerException exception) {
-                JOptionPane.showMessageDialog(PuzzleApp.this, "Unfortunately, the algorithm cannot check this photo(\nNext time try to assemble another puzzle");
-                dispose();
-                System.exit(0);
+            if (labeled) {
+                showResult(correctCount == board.size(), null);
+                return;
             }
-
-            BufferedImage collected = ImageManager.collectImages(puzzlesCopy);
-            if (ImageManager.compareImages(ourImage, collected)) {
-                JOptionPane.showMessageDialog(PuzzleApp.this, "Puzzles have been collected successfully!");
-                System.exit(0);
-            } else {
-                JOptionPane.showMessageDialog(PuzzleApp.this, "The puzzles are assembled incorrectly(((\nContinue...");
+            CompletableFuture<Boolean> check = solveService.check(board.puzzles(), ImageManager.ROWS, ImageManager.COLS,
+                    (stage, percent) -> checkButton.setText("Checking " + percent + "%"));
+            if (check == pendingCheck) {
+                return;
             }
+            pendingCheck = check;
+            check.whenComplete((equal, error) -> SwingUtilities.invokeLater(() -> {
+                checkButton.setText("Check");
+                if (!check.isCancelled()) {
+                    showResult(equal, error);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Shows the result of a finished check. A failed check keeps the window open, so the board can still be
+     * assembled and checked again.
+     */
+    private void showResult(Boolean equal, Throwable error) {
+        if (error != null) {
+            JOptionPane.showMessageDialog(PuzzleApp.this, "Unfortunately, the algorithm cannot check this photo(\nContinue assembling or try again");
+        } else if (equal) {
+            JOptionPane.showMessageDialog(PuzzleApp.this, "Puzzles have been collected successfully!");
+            System.exit(0);
+        } else {
+            JOptionPane.showMessageDialog(PuzzleApp.this, "The puzzles are assembled incorrectly(((\nContinue...");
         }
     }
 
     /**
      * Swaps the positions of the first selected puzzle and the second selected puzzle.
-     * Updates the puzzle array and button icons accordingly.
+     * Updates the board, the count of correctly placed pieces and the two changed slots of the canvas.
+     * A running check is cancelled, since it no longer describes the board.
      */
     private void swapPuzzles() {
-        Puzzle temp = puzzles[firstSelectedIndex];
-        puzzles[firstSelectedIndex] = puzzles[secondSelectedIndex];
-        puzzles[secondSelectedIndex] = temp;
+        solveService.cancel();
+        correctCount -= isCorrect(firstSelectedIndex) + isCorrect(secondSelectedIndex);
+        boardCanvas.swap(firstSelectedIndex, secondSelectedIndex);
+        correctCount += isCorrect(firstSelectedIndex) + isCorrect(secondSelectedIndex);
+    }
 
-        BufferedImage firstImage = puzzles[firstSelectedIndex].getImage();
-        BufferedImage secondImage = puzzles[secondSelectedIndex].getImage();
+    /**
+     * Counts the pieces that are at their original position and remembers whether all pieces are labeled.
+     */
+    private void countCorrectPuzzles() {
+        labeled = true;
+        correctCount = 0;
+        for (int i = 0; i < board.size(); i++) {
+            labeled &= board.getOriginalIndex(i) != -1;
+            correctCount += isCorrect(i);
+        }
+    }
 
-        puzzleButtons[firstSelectedIndex].setIcon(new ImageIcon(firstImage));
-        puzzleButtons[secondSelectedIndex].setIcon(new ImageIcon(secondImage));
+    private int isCorrect(int index) {
+        return board.isCorrect(index) ? 1 : 0;
     }
 
     private void clearSelection() {
-        puzzleButtons[firstSelectedIndex].setBorder(null);
-        puzzleButtons[secondSelectedIndex].setBorder(null);
+        boardCanvas.setSelected(firstSelectedIndex, false);
+        boardCanvas.setSelected(secondSelectedIndex, false);
         firstSelectedIndex = -1;
         secondSelectedIndex = -1;
     }
 
     public static void main(String[] args) {
+        Metrics.dumpOnExit();
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -172,6 +227,7 @@ public class PuzzleApp extends JFrame {
                     app = new PuzzleApp();
                 } catch (IOException e) {
                     System.out.println(e.getMessage());
+                    return;
                 }
                 app.setVisible(true);
             }
@@ -0,0 +1,502 @@
+package roman.andrusiak;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The PuzzleServer class serves puzzle sessions over HTTP, so many players can solve puzzles at once
+ * without a window per board.
+ * <p>
+ * Sessions that use the same source image and grid share one {@link Source}: the pieces from the
+ * {@link ImageCache}, their {@link EdgeIndex} and the PNG bytes of every tile, all created once and never
+ * modified. A hint scores the one piece asked about against every other piece on the edge index, so it costs
+ * N scores instead of the N² of a compatibility matrix and never waits for another request. A session holds
+ * only its own permutation, so a session costs a few bytes per piece no matter how large the image is.
+ * Requests run on a virtual thread each when the JVM provides them (Java 21 and later) and on a bounded pool
+ * of platform threads otherwise. Sessions that are idle for longer than the idle timeout are dropped, and so
+ * are the sources no session uses any more.
+ * <p>
+ * Endpoints, all answering JSON except the tiles:
+ * <ul>
+ *     <li>{@code POST /sessions?image=<file>&rows=<rows>&cols=<cols>[&seed=<seed>]} creates a shuffled session</li>
+ *     <li>{@code GET /sessions/<id>} returns the permutation of the session</li>
+ *     <li>{@code POST /sessions/<id>/swap?first=<slot>&second=<slot>} swaps two slots</li>
+ *     <li>{@code GET /sessions/<id>/check} tells whether the puzzle is solved</li>
+ *     <li>{@code GET /sessions/<id>/hint?slot=<slot>} returns the slot of the piece that fits best to the right</li>
+ *     <li>{@code GET /sessions/<id>/tiles/<slot>} returns the tile in a slot as PNG</li>
+ *     <li>{@code DELETE /sessions/<id>} ends the session</li>
+ * </ul>
+ */
+public class PuzzleServer implements AutoCloseable {
+    public static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final int MAX_GRID = 64;
+
+    private final File imageDirectory;
+    private final ImageCache cache;
+    private final long idleNanos;
+    private final Map<String, Source> sources = new ConcurrentHashMap<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * The immutable data of one source image split into a grid, shared by all its sessions.
+     * The sessions are counted, and a source leaves the map when its last session is dropped; the count is
+     * only changed inside {@code compute} calls of the map, so no session is added to a source being removed.
+     */
+    private static class Source {
+        private final String key;
+        private final int rows;
+        private final int cols;
+        private final BufferedImage[] pieces;
+        private final EdgeIndex edges;
+        private final AtomicReferenceArray<byte[]> tiles;
+        private int users;
+
+        Source(String key, BufferedImage[] pieces, int rows, int cols) {
+            this.key = key;
+            this.rows = rows;
+            this.cols = cols;
+            this.pieces = pieces;
+            this.edges = new EdgeIndex(new Board(pieces, rows, cols).puzzles());
+            this.tiles = new AtomicReferenceArray<>(pieces.length);
+        }
+
+        /**
+         * Returns the PNG bytes of a tile, encoding it on first use.
+         */
+        byte[] tile(int tile) throws IOException {
+            byte[] png = tiles.get(tile);
+            if (png == null) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                ImageIO.write(pieces[tile], "png", output);
+                png = output.toByteArray();
+                tiles.compareAndSet(tile, null, png);
+            }
+            return png;
+        }
+    }
+
+    /**
+     * The state of one player: the tile id of every slot. Tile ids are the original positions of the tiles.
+     */
+    private static class Session {
+        private final Source source;
+        private final int[] permutation;
+        private int correct;
+        private volatile long lastAccess = System.nanoTime();
+
+        Session(Source source, Random random) {
+            this.source = source;
+            this.permutation = new int[source.pieces.length];
+            for (int slot = 0; slot < permutation.length; slot++) {
+                permutation[slot] = slot;
+            }
+            for (int i = permutation.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int temp = permutation[i];
+                permutation[i] = permutation[j];
+                permutation[j] = temp;
+            }
+            for (int slot = 0; slot < permutation.length; slot++) {
+                correct += permutation[slot] == slot ? 1 : 0;
+            }
+        }
+
+        synchronized void swap(int first, int second) {
+            correct -= (permutation[first] == first ? 1 : 0) + (permutation[second] == second ? 1 : 0);
+            int temp = permutation[first];
+            permutation[first] = permutation[second];
+            permutation[second] = temp;
+            correct += (permutation[first] == first ? 1 : 0) + (permutation[second] == second ? 1 : 0);
+        }
+
+        synchronized int tileAt(int slot) {
+            return permutation[slot];
+        }
+
+        synchronized int slotOf(int tile) {
+            for (int slot = 0; slot < permutation.length; slot++) {
+                if (permutation[slot] == tile) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        synchronized String toJson(String id) {
+            StringBuilder json = new StringBuilder("{\"id\":\"").append(id)
+                    .append("\",\"rows\":").append(source.rows)
+                    .append(",\"cols\":").append(source.cols)
+                    .append(",\"correct\":").append(correct)
+                    .append(",\"solved\":").append(correct == permutation.length)
+                    .append(",\"permutation\":[");
+            for (int slot = 0; slot < permutation.length; slot++) {
+                json.append(slot == 0 ? "" : ",").append(permutation[slot]);
+            }
+            return json.append("]}").toString();
+        }
+
+        synchronized String checkJson() {
+            return "{\"correct\":" + correct + ",\"solved\":" + (correct == permutation.length) + "}";
+        }
+    }
+
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param port           the port to listen on, or 0 for any free port
+     * @param imageDirectory the directory with the source images players can choose from
+     * @param cache          the cache that decodes and splits the source images
+     * @param idleMillis     the time after which an unused session is dropped
+     * @throws IOException if the server cannot listen on the port
+     */
+    public PuzzleServer(int port, File imageDirectory, ImageCache cache, long idleMillis) throws IOException {
+        this.imageDirectory = imageDirectory.getCanonicalFile();
+        this.cache = cache;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.executor = requestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/sessions", this::handle);
+        server.setExecutor(executor);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleMillis / 4);
+        sweeper.scheduleAtFixedRate(this::dropIdleSessions, period, period, TimeUnit.MILLISECONDS);
+        server.start();
+    }
+
+    /**
+     * Creates a virtual-thread-per-request executor if the JVM has virtual threads, or a pool of platform
+     * threads otherwise. Request handlers block on I/O and on image decoding, so the pool is larger than the
+     * number of cores.
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(16, 4 * Runtime.getRuntime().availableProcessors()),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "puzzle-server-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public int getSourceCount() {
+        return sources.size();
+    }
+
+    /**
+     * Drops the idle sessions, and with them the sources that no session uses any more.
+     */
+    private void dropIdleSessions() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (now - entry.getValue().lastAccess > idleNanos) {
+                dropSession(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void dropSession(String id, Session session) {
+        if (sessions.remove(id, session)) {
+            release(session.source);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String[] parts = path.replaceAll("^/+|/+$", "").split("/+");
+        String method = exchange.getRequestMethod();
+        Metrics.Stage stage = Metrics.stage("http." + endpoint(parts), 0, 0, 0);
+        try {
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            if (!parts[0].equals("sessions")) {
+                throw new HttpError(404, "Unknown endpoint " + path);
+            }
+            if (parts.length == 1) {
+                expect(method, "POST");
+                respond(exchange, 201, createSession(query));
+                return;
+            }
+            Session session = sessions.get(parts[1]);
+            if (session == null) {
+                throw new HttpError(404, "Unknown session " + parts[1]);
+            }
+            session.lastAccess = System.nanoTime();
+            if (parts.length == 2) {
+                if (method.equals("DELETE")) {
+                    dropSession(parts[1], session);
+                    respond(exchange, 200, "{\"deleted\":true}");
+                } else {
+                    expect(method, "GET");
+                    respond(exchange, 200, session.toJson(parts[1]));
+                }
+            } else if (parts.length == 3 && parts[2].equals("swap")) {
+                expect(method, "POST");
+                session.swap(slot(query, "first", session), slot(query, "second", session));
+                respond(exchange, 200, session.checkJson());
+            } else if (parts.length == 3 && parts[2].equals("check")) {
+                expect(method, "GET");
+                respond(exchange, 200, session.checkJson());
+            } else if (parts.length == 3 && parts[2].equals("hint")) {
+                expect(method, "GET");
+                respond(exchange, 200, "{\"slot\":" + hint(session, slot(query, "slot", session)) + "}");
+            } else if (parts.length == 4 && parts[2].equals("tiles")) {
+                expect(method, "GET");
+                int slot = parseSlot(parts[3], session);
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                send(exchange, 200, session.source.tile(session.tileAt(slot)));
+            } else {
+                throw new HttpError(404, "Unknown endpoint " + path);
+            }
+        } catch (HttpError e) {
+            respond(exchange, e.status, "{\"error\":" + Metrics.quote(e.getMessage()) + "}");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Problem with request " + path + ": " + e.getMessage());
+            respond(exchange, 500, "{\"error\":\"internal error\"}");
+        } finally {
+            stage.close();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Names the endpoint of a request for the metrics; unknown paths share one name.
+     */
+    private static String endpoint(String[] parts) {
+        if (parts.length <= 2) {
+            return parts.length == 1 ? "create" : "session";
+        }
+        switch (parts[2]) {
+            case "swap":
+            case "check":
+            case "hint":
+            case "tiles":
+                return parts[2];
+            default:
+                return "unknown";
+        }
+    }
+
+    private String createSession(Map<String, String> query) throws HttpError, IOException {
+        String image = query.get("image");
+        if (image == null) {
+            throw new HttpError(400, "Missing parameter image");
+        }
+        int rows = intParameter(query, "rows", ImageManager.ROWS);
+        int cols = intParameter(query, "cols", ImageManager.COLS);
+        if (rows < 1 || cols < 1 || rows > MAX_GRID || cols > MAX_GRID) {
+            throw new HttpError(400, "The grid must be between 1x1 and " + MAX_GRID + "x" + MAX_GRID);
+        }
+        File file = new File(imageDirectory, image).getCanonicalFile();
+        if (!imageDirectory.equals(file.getParentFile()) || !file.isFile()) {
+            throw new HttpError(404, "Unknown image " + image);
+        }
+        Source source = acquire(file, rows, cols);
+        Random random = query.containsKey("seed") ? new Random(intParameter(query, "seed", 0)) : new Random();
+        Session session = new Session(source, random);
+        String id = UUID.randomUUID().toString();
+        sessions.put(id, session);
+        return session.toJson(id);
+    }
+
+    /**
+     * Returns the shared source of an image and grid for a new session, splitting the image when no session
+     * uses it yet. The session is counted before the source is returned.
+     */
+    private Source acquire(File file, int rows, int cols) throws IOException {
+        String key = file.getPath() + '|' + file.lastModified() + '|' + rows + 'x' + cols;
+        Source source = sources.computeIfPresent(key, (k, existing) -> {
+            existing.users++;
+            return existing;
+        });
+        if (source != null) {
+            return source;
+        }
+        Source created = new Source(key, cache.getPieces(file.getPath(), rows, cols), rows, cols);
+        return sources.compute(key, (k, existing) -> {
+            Source result = existing != null ? existing : created;
+            result.users++;
+            return result;
+        });
+    }
+
+    /**
+     * Uncounts a dropped session and removes its source when no session uses it any more.
+     */
+    private void release(Source source) {
+        sources.computeIfPresent(source.key, (k, existing) -> {
+            if (existing == source && --existing.users == 0) {
+                return null;
+            }
+            return existing;
+        });
+    }
+
+    /**
+     * Finds the slot of the piece that fits best to the right of the piece in a slot.
+     */
+    private static int hint(Session session, int slot) {
+        EdgeIndex edges = session.source.edges;
+        int tile = session.tileAt(slot);
+        int best = -1;
+        float bestScore = Float.MAX_VALUE;
+        for (int other = 0; other < edges.size(); other++) {
+            if (other == tile) {
+                continue;
+            }
+            float score = EdgeMetric.GRADIENT.dissimilarity(edges, tile, EdgeIndex.RIGHT, other, EdgeIndex.LEFT);
+            if (best == -1 || score < bestScore) {
+                best = other;
+                bestScore = score;
+            }
+        }
+        return best == -1 ? -1 : session.slotOf(best);
+    }
+
+    private static void expect(String method, String expected) throws HttpError {
+        if (!method.equals(expected)) {
+            throw new HttpError(405, "Expected " + expected + ", got " + method);
+        }
+    }
+
+    private static int slot(Map<String, String> query, String name, Session session) throws HttpError {
+        String value = query.get(name);
+        if (value == null) {
+            throw new HttpError(400, "Missing parameter " + name);
+        }
+        return parseSlot(value, session);
+    }
+
+    private static int parseSlot(String value, Session session) throws HttpError {
+        try {
+            int slot = Integer.parseInt(value);
+            if (slot >= 0 && slot < session.permutation.length) {
+                return slot;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new HttpError(400, "Invalid slot " + value);
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) throws HttpError {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Invalid parameter " + name);
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        send(exchange, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Stops accepting requests, waits shortly for running ones and drops all sessions.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        sweeper.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessions.clear();
+        sources.clear();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PuzzleServer <imageDirectory> [port] [cacheMegabytes]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        Metrics.dumpOnExit();
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        long cacheBytes = (args.length > 2 ? Long.parseLong(args[2]) : 512) << 20;
+        PuzzleServer server = new PuzzleServer(port, new File(args[0]), new ImageCache(cacheBytes, null),
+                DEFAULT_IDLE_MILLIS);
+        System.out.println("Serving puzzles from " + args[0] + " on port " + server.getPort());
+    }
+}
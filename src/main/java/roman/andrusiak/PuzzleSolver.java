@@ -0,0 +1,335 @@
+package roman.andrusiak;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * The PuzzleSolver class places puzzle pieces on a grid of any size.
+ * It grows the solution greedily from a seed piece: every free slot next to the placed pieces
+ * keeps its best candidate in a priority queue, and the slot with the lowest edge dissimilarity
+ * is filled first. An entry made stale by a later offer for its slot is detected by a version counter and
+ * dropped; an entry whose piece was placed elsewhere is re-evaluated lazily.
+ * <p>
+ * With a sparse {@link CompatibilityMatrix} a free slot only looks at the scored partners of the pieces around
+ * it, and all pieces are scanned only when none of those partners is left, so the placement does roughly
+ * N * candidates work instead of N² for large puzzles.
+ */
+public class PuzzleSolver {
+    private final int rows;
+    private final int cols;
+    private final int count;
+    private final CompatibilityMatrix matrix;
+
+    private final int canvasRows;
+    private final int canvasCols;
+    private final int[] canvas;
+    private final int[] slotVersion;
+    private final boolean[] placed;
+    private final int[] seen;
+    private int seenStamp;
+    private int offerBest;
+    private float offerScore;
+    private int minRow;
+    private int maxRow;
+    private int minCol;
+    private int maxCol;
+
+    /**
+     * Creates a solver for a puzzle with the given grid size.
+     *
+     * @param matrix the compatibility matrix of the pieces to place
+     * @param rows   the number of rows of the puzzle
+     * @param cols   the number of columns of the puzzle
+     */
+    public PuzzleSolver(CompatibilityMatrix matrix, int rows, int cols) {
+        if (matrix.size() != rows * cols) {
+            throw new IllegalArgumentException("Expected " + rows * cols + " pieces, got " + matrix.size());
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.count = matrix.size();
+        this.matrix = matrix;
+        this.canvasRows = 2 * rows - 1;
+        this.canvasCols = 2 * cols - 1;
+        this.canvas = new int[canvasRows * canvasCols];
+        this.slotVersion = new int[canvasRows * canvasCols];
+        this.placed = new boolean[count];
+        this.seen = matrix.isSparse() ? new int[count] : null;
+    }
+
+    /**
+     * Solves the puzzle. The solver can be run again, every run starting from an empty grid.
+     * The solver stops with a CancellationException when the calling thread is interrupted.
+     *
+     * @return the placement of the pieces: element k is the index of the piece in row k / cols, column k % cols
+     */
+    public int[] solve() {
+        return solve(null);
+    }
+
+    /**
+     * Solves the puzzle like {@link #solve()}, reporting the placed pieces as the {@link Progress#PLACE} stage.
+     *
+     * @param progress the receiver of the progress, or null
+     * @return the placement of the pieces: element k is the index of the piece in row k / cols, column k % cols
+     */
+    public int[] solve(Progress progress) {
+        Arrays.fill(canvas, -1);
+        Arrays.fill(placed, false);
+        Arrays.fill(slotVersion, 0);
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        int centerRow = rows - 1;
+        int centerCol = cols - 1;
+        minRow = maxRow = centerRow;
+        minCol = maxCol = centerCol;
+        place(chooseSeed(), centerRow * canvasCols + centerCol, queue);
+
+        for (int placedCount = 1; placedCount < count; ) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Solver interrupted");
+            }
+            Candidate candidate = queue.poll();
+            if (candidate == null) {
+                break;
+            }
+            int slot = candidate.slot;
+            if (canvas[slot] != -1 || !admissible(slot / canvasCols, slot % canvasCols)) {
+                continue;
+            }
+            if (candidate.version != slotVersion[slot]) {
+                continue;
+            }
+            if (placed[candidate.piece]) {
+                offer(slot, queue);
+                continue;
+            }
+            place(candidate.piece, slot, queue);
+            placedCount++;
+            if (progress != null) {
+                progress.update(Progress.PLACE, placedCount, count);
+            }
+        }
+        return readPlacement();
+    }
+
+    /**
+     * Picks the piece with the most best-buddy relations as the seed.
+     * Two pieces are best buddies in a direction when each one is the other's best match.
+     */
+    private int chooseSeed() {
+        int[] bestRight = new int[count];
+        int[] bestLeft = new int[count];
+        int[] bestDown = new int[count];
+        int[] bestUp = new int[count];
+        for (int i = 0; i < count; i++) {
+            bestRight[i] = bestOf(i, true, true);
+            bestLeft[i] = bestOf(i, true, false);
+            bestDown[i] = bestOf(i, false, true);
+            bestUp[i] = bestOf(i, false, false);
+        }
+        int seed = 0;
+        int seedBuddies = -1;
+        for (int i = 0; i < count; i++) {
+            int buddies = 0;
+            if (bestLeft[bestRight[i]] == i) {
+                buddies++;
+            }
+            if (bestRight[bestLeft[i]] == i) {
+                buddies++;
+            }
+            if (bestUp[bestDown[i]] == i) {
+                buddies++;
+            }
+            if (bestDown[bestUp[i]] == i) {
+                buddies++;
+            }
+            if (buddies > seedBuddies) {
+                seed = i;
+                seedBuddies = buddies;
+            }
+        }
+        return seed;
+    }
+
+    private int bestOf(int piece, boolean horizontal, boolean asFirst) {
+        int side = horizontal ? (asFirst ? EdgeIndex.RIGHT : EdgeIndex.LEFT) : (asFirst ? EdgeIndex.BOTTOM : EdgeIndex.TOP);
+        int[] partners = matrix.partners(piece, side);
+        int candidates = partners != null && partners.length > 0 ? partners.length : count;
+        int best = piece;
+        float bestScore = Float.MAX_VALUE;
+        for (int k = 0; k < candidates; k++) {
+            int other = candidates == count ? k : partners[k];
+            if (other == piece) {
+                continue;
+            }
+            int first = asFirst ? piece : other;
+            int second = asFirst ? other : piece;
+            float score = horizontal ? matrix.horizontal(first, second) : matrix.vertical(first, second);
+            if (score < bestScore) {
+                bestScore = score;
+                best = other;
+            }
+        }
+        return best;
+    }
+
+    private void place(int piece, int slot, PriorityQueue<Candidate> queue) {
+        int row = slot / canvasCols;
+        int col = slot % canvasCols;
+        canvas[slot] = piece;
+        placed[piece] = true;
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minCol = Math.min(minCol, col);
+        maxCol = Math.max(maxCol, col);
+        touch(row, col - 1, queue);
+        touch(row, col + 1, queue);
+        touch(row - 1, col, queue);
+        touch(row + 1, col, queue);
+    }
+
+    private void touch(int row, int col, PriorityQueue<Candidate> queue) {
+        if (row < 0 || row >= canvasRows || col < 0 || col >= canvasCols) {
+            return;
+        }
+        int slot = row * canvasCols + col;
+        if (canvas[slot] != -1 || !admissible(row, col)) {
+            return;
+        }
+        slotVersion[slot]++;
+        offer(slot, queue);
+    }
+
+    /**
+     * Finds the best unplaced piece for a free slot and adds it to the queue.
+     */
+    private void offer(int slot, PriorityQueue<Candidate> queue) {
+        int row = slot / canvasCols;
+        int col = slot % canvasCols;
+        int left = pieceAt(row, col - 1);
+        int right = pieceAt(row, col + 1);
+        int up = pieceAt(row - 1, col);
+        int down = pieceAt(row + 1, col);
+        int neighbors = (left != -1 ? 1 : 0) + (right != -1 ? 1 : 0) + (up != -1 ? 1 : 0) + (down != -1 ? 1 : 0);
+        if (neighbors == 0) {
+            return;
+        }
+        offerBest = -1;
+        offerScore = Float.MAX_VALUE;
+        if (matrix.isSparse()) {
+            seenStamp++;
+            if (left != -1) {
+                offerAll(matrix.partners(left, EdgeIndex.RIGHT), left, right, up, down);
+            }
+            if (right != -1) {
+                offerAll(matrix.partners(right, EdgeIndex.LEFT), left, right, up, down);
+            }
+            if (up != -1) {
+                offerAll(matrix.partners(up, EdgeIndex.BOTTOM), left, right, up, down);
+            }
+            if (down != -1) {
+                offerAll(matrix.partners(down, EdgeIndex.TOP), left, right, up, down);
+            }
+        }
+        if (offerBest == -1) {
+            for (int piece = 0; piece < count; piece++) {
+                offerPiece(piece, left, right, up, down);
+            }
+        }
+        if (offerBest != -1) {
+            queue.add(new Candidate(offerScore / neighbors, neighbors, slot, offerBest, slotVersion[slot]));
+        }
+    }
+
+    private void offerAll(int[] partners, int left, int right, int up, int down) {
+        for (int piece : partners) {
+            if (seen[piece] != seenStamp) {
+                seen[piece] = seenStamp;
+                offerPiece(piece, left, right, up, down);
+            }
+        }
+    }
+
+    /**
+     * Scores an unplaced piece for a slot with the given neighbors and keeps it if it is the best so far.
+     */
+    private void offerPiece(int piece, int left, int right, int up, int down) {
+        if (placed[piece]) {
+            return;
+        }
+        float score = 0;
+        if (left != -1) {
+            score += matrix.horizontal(left, piece);
+        }
+        if (right != -1) {
+            score += matrix.horizontal(piece, right);
+        }
+        if (up != -1) {
+            score += matrix.vertical(up, piece);
+        }
+        if (down != -1) {
+            score += matrix.vertical(piece, down);
+        }
+        if (score < offerScore) {
+            offerScore = score;
+            offerBest = piece;
+        }
+    }
+
+    private int pieceAt(int row, int col) {
+        if (row < 0 || row >= canvasRows || col < 0 || col >= canvasCols) {
+            return -1;
+        }
+        return canvas[row * canvasCols + col];
+    }
+
+    private boolean admissible(int row, int col) {
+        return Math.max(maxRow, row) - Math.min(minRow, row) < rows
+                && Math.max(maxCol, col) - Math.min(minCol, col) < cols;
+    }
+
+    /**
+     * Reads the placed pieces out of the canvas. Slots that stayed empty get the remaining pieces.
+     */
+    private int[] readPlacement() {
+        int[] placement = new int[count];
+        int top = Math.min(minRow, canvasRows - rows);
+        int leftCol = Math.min(minCol, canvasCols - cols);
+        int nextFree = 0;
+        for (int k = 0; k < count; k++) {
+            int piece = canvas[(top + k / cols) * canvasCols + leftCol + k % cols];
+            if (piece == -1) {
+                while (placed[nextFree]) {
+                    nextFree++;
+                }
+                piece = nextFree;
+                placed[piece] = true;
+            }
+            placement[k] = piece;
+        }
+        return placement;
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        private final float score;
+        private final int neighbors;
+        private final int slot;
+        private final int piece;
+        private final int version;
+
+        Candidate(float score, int neighbors, int slot, int piece, int version) {
+            this.score = score;
+            this.neighbors = neighbors;
+            this.slot = slot;
+            this.piece = piece;
+            this.version = version;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int byScore = Float.compare(score, other.score);
+            return byScore != 0 ? byScore : Integer.compare(other.neighbors, neighbors);
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package roman.andrusiak;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Resizer class scales images held as packed 0xRRGGBB int arrays, in one of several quality {@link Mode}s.
+ * <p>
+ * {@link Mode#NEAREST} and {@link Mode#BOX} are the fast modes: the first picks one source pixel per target
+ * pixel, the second averages all pixels of the given source under a target pixel, which removes most of the
+ * aliasing of a downscale. A decoder that subsamples skips pixels before the resizer sees them, so every mode
+ * but {@link Mode#NEAREST} {@link Mode#filters() filters} and asks for at least twice the target size.
+ * {@link Mode#BILINEAR} halves the image with 2x2 averages until it is less than twice the target
+ * size and finishes with one bilinear step, so no source pixel is skipped. {@link Mode#LANCZOS} applies a
+ * separable Lanczos-3 filter widened by the scale factor; it keeps edges sharp without aliasing, which is
+ * what the edge metrics need.
+ * <p>
+ * Every pass runs on the common ForkJoinPool in bands of target rows. A Lanczos band unpacks only the
+ * source rows it needs into its own buffer, so the memory of a pass grows with the band size instead of
+ * with the image.
+ */
+public class Resizer {
+    private static final ColorModel RGB = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    private static final int BAND_ROWS = 32;
+    private static final int LOBES = 3;
+
+    /**
+     * The quality modes of the resizer.
+     */
+    public enum Mode {
+        NEAREST(false),
+        BOX(true),
+        BILINEAR(true),
+        LANCZOS(true);
+
+        private final boolean filters;
+
+        Mode(boolean filters) {
+            this.filters = filters;
+        }
+
+        /**
+         * Tells whether the mode filters over neighboring source pixels and should therefore be given more
+         * source pixels than the target has, e.g. by a decoder that subsamples.
+         *
+         * @return true for every mode but {@link #NEAREST}
+         */
+        public boolean filters() {
+            return filters;
+        }
+
+        /**
+         * Returns the mode with the given name, e.g. from a system property.
+         * An unknown name is reported and the fallback is used instead.
+         *
+         * @param name     one of nearest, box, bilinear and lanczos, in any case, or null
+         * @param fallback the mode to use when the name is missing or unknown
+         * @return the mode
+         */
+        public static Mode parse(String name, Mode fallback) {
+            if (name == null) {
+                return fallback;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Problem with resize mode " + name + ", using "
+                        + fallback.name().toLowerCase(Locale.ROOT));
+                return fallback;
+            }
+        }
+    }
+
+    /**
+     * Scales an image to the given size.
+     *
+     * @param image  the image to scale
+     * @param width  the width of the target image
+     * @param height the height of the target image
+     * @param mode   the resize mode
+     * @return a new TYPE_INT_RGB image of the given size, or the image itself in TYPE_INT_RGB if it already has it
+     */
+    public static BufferedImage resize(BufferedImage image, int width, int height, Mode mode) {
+        byte[] bgr = bgrData(image);
+        if (bgr != null && (image.getWidth() != width || image.getHeight() != height)) {
+            int[] scaled = mode == Mode.BOX ? box(bgr, image.getWidth(), image.getHeight(), width, height)
+                    : resize(unpack(bgr, image.getWidth(), image.getHeight()), image.getWidth(), image.getHeight(),
+                    width, height, mode);
+            return wrap(scaled, width, height);
+        }
+        IntRaster source = IntRaster.of(image);
+        if (source.getWidth() == width && source.getHeight() == height) {
+            return source.getImage();
+        }
+        int[] pixels = source.getData();
+        if (source.index(0, 0) != 0 || source.getStride() != source.getWidth()
+                || pixels.length != source.getWidth() * source.getHeight()) {
+            pixels = new int[source.getWidth() * source.getHeight()];
+            for (int y = 0; y < source.getHeight(); y++) {
+                System.arraycopy(source.getData(), source.index(0, y), pixels, y * source.getWidth(),
+                        source.getWidth());
+            }
+        }
+        return wrap(resize(pixels, source.getWidth(), source.getHeight(), width, height, mode), width, height);
+    }
+
+    private static BufferedImage wrap(int[] pixels, int width, int height) {
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height,
+                width, new int[]{0xFF0000, 0xFF00, 0xFF}, null);
+        return new BufferedImage(RGB, raster, false, null);
+    }
+
+    /**
+     * Returns the pixel bytes of a TYPE_3BYTE_BGR image, which is what the JPEG decoder produces, if they are
+     * stored row by row without padding.
+     *
+     * @return the bytes, or null if the image has another layout
+     */
+    private static byte[] bgrData(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR || image.getRaster().getParent() != null
+                || !(image.getSampleModel() instanceof PixelInterleavedSampleModel)) {
+            return null;
+        }
+        PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) image.getSampleModel();
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int length = 3 * image.getWidth() * image.getHeight();
+        return model.getScanlineStride() == 3 * image.getWidth() && model.getPixelStride() == 3
+                && image.getRaster().getDataBuffer().getOffset() == 0 && data.length == length ? data : null;
+    }
+
+    /**
+     * Packs the bytes of a TYPE_3BYTE_BGR image into 0xRRGGBB ints, in bands like the filters, which is several
+     * times faster than converting the image with drawImage.
+     */
+    private static int[] unpack(byte[] bgr, int width, int height) {
+        int[] pixels = new int[width * height];
+        inBands(height, (from, to) -> {
+            for (int i = from * width, k = 3 * i; i < to * width; i++, k += 3) {
+                pixels[i] = (bgr[k + 2] & 0xFF) << 16 | (bgr[k + 1] & 0xFF) << 8 | bgr[k] & 0xFF;
+            }
+        });
+        return pixels;
+    }
+
+    private static boolean isSmallScale(int sourceWidth, int sourceHeight, int width, int height) {
+        return sourceWidth < 2 * width && sourceHeight < 2 * height && width > 0 && height > 0;
+    }
+
+    /**
+     * Scales packed 0xRRGGBB pixels to the given size.
+     *
+     * @param pixels       the source pixels, row by row without padding
+     * @param sourceWidth  the width of the source
+     * @param sourceHeight the height of the source
+     * @param width        the width of the target
+     * @param height       the height of the target
+     * @param mode         the resize mode
+     * @return the target pixels, row by row without padding
+     */
+    public static int[] resize(int[] pixels, int sourceWidth, int sourceHeight, int width, int height, Mode mode) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid target size " + width + "x" + height);
+        }
+        if (sourceWidth == width && sourceHeight == height) {
+            return pixels.clone();
+        }
+        switch (mode) {
+            case NEAREST:
+                return nearest(pixels, sourceWidth, sourceHeight, width, height);
+            case BOX:
+                return box(pixels, sourceWidth, sourceHeight, width, height);
+            case BILINEAR:
+                return progressiveBilinear(pixels, sourceWidth, sourceHeight, width, height);
+            case LANCZOS:
+                return lanczos(pixels, sourceWidth, sourceHeight, width, height);
+            default:
+                throw new IllegalArgumentException("Unknown resize mode: " + mode);
+        }
+    }
+
+    private static int[] nearest(int[] pixels, int sourceWidth, int sourceHeight, int width, int height) {
+        int[] target = new int[width * height];
+        int[] columns = new int[width];
+        for (int x = 0; x < width; x++) {
+            columns[x] = (int) ((2L * x + 1) * sourceWidth / (2L * width));
+        }
+        inBands(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = (int) ((2L * y + 1) * sourceHeight / (2L * height)) * sourceWidth;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    target[i] = pixels[row + columns[x]];
+                }
+            }
+        });
+        return target;
+    }
+
+    /**
+     * Averages the source pixels that fall into every target pixel; upscaling repeats source pixels.
+     * The source rows of a target row are summed per column and channel into running sums along the row,
+     * so the sum under every target pixel is one difference, without a loop whose length changes from
+     * pixel to pixel.
+     */
+    private static int[] box(int[] pixels, int sourceWidth, int sourceHeight, int width, int height) {
+        if (isSmallScale(sourceWidth, sourceHeight, width, height)) {
+            return smallBox(pixels, sourceWidth, sourceHeight, width, height);
+        }
+        return box((top, bottom, red, green, blue) -> sumColumns(pixels, sourceWidth, top, bottom, red, green, blue),
+                sourceWidth, sourceHeight, width, height);
+    }
+
+    /**
+     * The same filter reading the bytes of a TYPE_3BYTE_BGR image, so a decoded image is not unpacked first.
+     */
+    private static int[] box(byte[] bgr, int sourceWidth, int sourceHeight, int width, int height) {
+        if (isSmallScale(sourceWidth, sourceHeight, width, height)) {
+            return smallBox(unpack(bgr, sourceWidth, sourceHeight), sourceWidth, sourceHeight, width, height);
+        }
+        return box((top, bottom, red, green, blue) -> sumColumns(bgr, sourceWidth, top, bottom, red, green, blue),
+                sourceWidth, sourceHeight, width, height);
+    }
+
+    /**
+     * Sums the source rows from top to bottom per column and channel, as running sums along the row:
+     * element x + 1 holds the sum of columns 0 to x.
+     */
+    private interface ColumnSums {
+        void sum(int top, int bottom, int[] red, int[] green, int[] blue);
+    }
+
+    private static int[] box(ColumnSums sums, int sourceWidth, int sourceHeight, int width, int height) {
+        int[] target = new int[width * height];
+        int[] lefts = new int[width];
+        int[] rights = new int[width];
+        float[] inverseWidths = new float[width];
+        for (int x = 0; x < width; x++) {
+            lefts[x] = (int) ((long) x * sourceWidth / width);
+            rights[x] = Math.max(lefts[x] + 1, (int) ((long) (x + 1) * sourceWidth / width));
+            inverseWidths[x] = 1f / (rights[x] - lefts[x]);
+        }
+        inBands(height, (from, to) -> {
+            int[] red = new int[sourceWidth + 1];
+            int[] green = new int[sourceWidth + 1];
+            int[] blue = new int[sourceWidth + 1];
+            for (int y = from; y < to; y++) {
+                int top = (int) ((long) y * sourceHeight / height);
+                int bottom = Math.max(top + 1, (int) ((long) (y + 1) * sourceHeight / height));
+                sums.sum(top, bottom, red, green, blue);
+                float inverseHeight = 1f / (bottom - top);
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int left = lefts[x];
+                    int right = rights[x];
+                    float scale = inverseWidths[x] * inverseHeight;
+                    target[i] = (int) ((red[right] - red[left]) * scale + 0.5f) << 16
+                            | (int) ((green[right] - green[left]) * scale + 0.5f) << 8
+                            | (int) ((blue[right] - blue[left]) * scale + 0.5f);
+                }
+            }
+        });
+        return target;
+    }
+
+    private static void sumColumns(int[] pixels, int sourceWidth, int top, int bottom,
+                                   int[] red, int[] green, int[] blue) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int row = top * sourceWidth;
+        if (bottom - top == 1) {
+            for (int sx = 0; sx < sourceWidth; sx++) {
+                int rgb = pixels[row + sx];
+                red[sx + 1] = r += rgb >> 16 & 0xFF;
+                green[sx + 1] = g += rgb >> 8 & 0xFF;
+                blue[sx + 1] = b += rgb & 0xFF;
+            }
+        } else if (bottom - top == 2) {
+            for (int sx = 0; sx < sourceWidth; sx++) {
+                int rgb = pixels[row + sx];
+                int below = pixels[row + sourceWidth + sx];
+                red[sx + 1] = r += (rgb >> 16 & 0xFF) + (below >> 16 & 0xFF);
+                green[sx + 1] = g += (rgb >> 8 & 0xFF) + (below >> 8 & 0xFF);
+                blue[sx + 1] = b += (rgb & 0xFF) + (below & 0xFF);
+            }
+        } else {
+            for (int sx = 0; sx < sourceWidth; sx++) {
+                for (int i = row + sx; i < bottom * sourceWidth; i += sourceWidth) {
+                    int rgb = pixels[i];
+                    r += rgb >> 16 & 0xFF;
+                    g += rgb >> 8 & 0xFF;
+                    b += rgb & 0xFF;
+                }
+                red[sx + 1] = r;
+                green[sx + 1] = g;
+                blue[sx + 1] = b;
+            }
+        }
+    }
+
+    private static void sumColumns(byte[] bgr, int sourceWidth, int top, int bottom,
+                                   int[] red, int[] green, int[] blue) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int rowBytes = 3 * sourceWidth;
+        int row = top * rowBytes;
+        if (bottom - top == 2) {
+            for (int sx = 0, k = row; sx < sourceWidth; sx++, k += 3) {
+                red[sx + 1] = r += (bgr[k + 2] & 0xFF) + (bgr[k + 2 + rowBytes] & 0xFF);
+                green[sx + 1] = g += (bgr[k + 1] & 0xFF) + (bgr[k + 1 + rowBytes] & 0xFF);
+                blue[sx + 1] = b += (bgr[k] & 0xFF) + (bgr[k + rowBytes] & 0xFF);
+            }
+        } else {
+            for (int sx = 0, k = row; sx < sourceWidth; sx++, k += 3) {
+                for (int i = k; i < bottom * rowBytes; i += rowBytes) {
+                    r += bgr[i + 2] & 0xFF;
+                    g += bgr[i + 1] & 0xFF;
+                    b += bgr[i] & 0xFF;
+                }
+                red[sx + 1] = r;
+                green[sx + 1] = g;
+                blue[sx + 1] = b;
+            }
+        }
+    }
+
+    /**
+     * The box filter for scale factors below two, e.g. for a source that is already close to the target size.
+     * Every target pixel covers one or two source pixels in each direction; it always adds four
+     * samples, repeating a pixel where it covers only one, so the average is the sum shifted by two.
+     * Red and blue are added in one int and green in another, four 8-bit values never overflow their lanes.
+     */
+    private static int[] smallBox(int[] pixels, int sourceWidth, int sourceHeight, int width, int height) {
+        int[] target = new int[width * height];
+        int[] lefts = new int[width];
+        int[] rights = new int[width];
+        for (int x = 0; x < width; x++) {
+            lefts[x] = (int) ((long) x * sourceWidth / width);
+            rights[x] = Math.max(lefts[x] + 1, (int) ((long) (x + 1) * sourceWidth / width)) - 1;
+        }
+        inBands(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int top = (int) ((long) y * sourceHeight / height);
+                int upper = top * sourceWidth;
+                int lower = (Math.max(top + 1, (int) ((long) (y + 1) * sourceHeight / height)) - 1) * sourceWidth;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int a = pixels[upper + lefts[x]];
+                    int b = pixels[upper + rights[x]];
+                    int c = pixels[lower + lefts[x]];
+                    int d = pixels[lower + rights[x]];
+                    int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF) + 0x20002;
+                    int green = (a & 0xFF00) + (b & 0xFF00) + (c & 0xFF00) + (d & 0xFF00) + 0x200;
+                    target[i] = (redBlue >> 2 & 0xFF00FF) | (green >> 2 & 0xFF00);
+                }
+            }
+        });
+        return target;
+    }
+
+    /**
+     * Halves each dimension that is at least twice its target, then finishes with one bilinear step.
+     */
+    private static int[] progressiveBilinear(int[] pixels, int sourceWidth, int sourceHeight, int width, int height) {
+        int currentWidth = sourceWidth;
+        int currentHeight = sourceHeight;
+        while (currentWidth >= 2 * width || currentHeight >= 2 * height) {
+            int halfWidth = currentWidth >= 2 * width ? currentWidth / 2 : currentWidth;
+            int halfHeight = currentHeight >= 2 * height ? currentHeight / 2 : currentHeight;
+            pixels = halve(pixels, currentWidth, halfWidth, halfHeight, currentWidth / halfWidth, currentHeight / halfHeight);
+            currentWidth = halfWidth;
+            currentHeight = halfHeight;
+        }
+        return bilinear(pixels, currentWidth, currentHeight, width, height);
+    }
+
+    private static int[] halve(int[] pixels, int sourceWidth, int width, int height, int stepX, int stepY) {
+        int[] target = new int[width * height];
+        int area = stepX * stepY;
+        inBands(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    for (int dy = 0; dy < stepY; dy++) {
+                        int row = (y * stepY + dy) * sourceWidth + x * stepX;
+                        for (int dx = 0; dx < stepX; dx++) {
+                            int rgb = pixels[row + dx];
+                            r += rgb >> 16 & 0xFF;
+                            g += rgb >> 8 & 0xFF;
+                            b += rgb & 0xFF;
+                        }
+                    }
+                    target[y * width + x] = (r + area / 2) / area << 16 | (g + area / 2) / area << 8 | (b + area / 2) / area;
+                }
+            }
+        });
+        return target;
+    }
+
+    private static int[] bilinear(int[] pixels, int sourceWidth, int sourceHeight, int width, int height) {
+        if (sourceWidth == width && sourceHeight == height) {
+            return pixels;
+        }
+        int[] target = new int[width * height];
+        int[] left = new int[width];
+        float[] fractions = new float[width];
+        for (int x = 0; x < width; x++) {
+            float position = Math.max(0, (x + 0.5f) * sourceWidth / width - 0.5f);
+            left[x] = Math.min((int) position, sourceWidth - 1);
+            fractions[x] = position - left[x];
+        }
+        inBands(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                float position = Math.max(0, (y + 0.5f) * sourceHeight / height - 0.5f);
+                int top = Math.min((int) position, sourceHeight - 1);
+                float fy = position - top;
+                int upper = top * sourceWidth;
+                int lower = Math.min(top + 1, sourceHeight - 1) * sourceWidth;
+                for (int x = 0; x < width; x++) {
+                    int x0 = left[x];
+                    int x1 = Math.min(x0 + 1, sourceWidth - 1);
+                    float fx = fractions[x];
+                    int rgb = 0;
+                    for (int shift = 16; shift >= 0; shift -= 8) {
+                        float a = (pixels[upper + x0] >> shift & 0xFF) * (1 - fx) + (pixels[upper + x1] >> shift & 0xFF) * fx;
+                        float c = (pixels[lower + x0] >> shift & 0xFF) * (1 - fx) + (pixels[lower + x1] >> shift & 0xFF) * fx;
+                        rgb |= clamp(a * (1 - fy) + c * fy) << shift;
+                    }
+                    target[y * width + x] = rgb;
+                }
+            }
+        });
+        return target;
+    }
+
+    /**
+     * The source pixels and weights that make up every target coordinate of one filter pass.
+     * Every target coordinate uses the same number of taps, starting at starts[t]; the window is shifted
+     * inside the source at the borders, where the filter gives the extra taps a weight of zero.
+     */
+    private static class Contributions {
+        private final int taps;
+        private final int[] starts;
+        private final float[] weights;
+
+        Contributions(int sourceSize, int targetSize) {
+            double scale = (double) sourceSize / targetSize;
+            double width = Math.max(1, scale);
+            double support = LOBES * width;
+            taps = Math.min(sourceSize, (int) Math.ceil(2 * support) + 1);
+            starts = new int[targetSize];
+            weights = new float[targetSize * taps];
+            for (int t = 0; t < targetSize; t++) {
+                double center = (t + 0.5) * scale;
+                int first = Math.min(Math.max(0, (int) Math.floor(center - support)), sourceSize - taps);
+                double sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    double value = lanczos((first + k + 0.5 - center) / width);
+                    weights[t * taps + k] = (float) value;
+                    sum += value;
+                }
+                for (int k = 0; k < taps; k++) {
+                    weights[t * taps + k] /= sum;
+                }
+                starts[t] = first;
+            }
+        }
+    }
+
+    private static double lanczos(double x) {
+        if (x == 0) {
+            return 1;
+        }
+        if (Math.abs(x) >= LOBES) {
+            return 0;
+        }
+        double pi = Math.PI * x;
+        return LOBES * Math.sin(pi) * Math.sin(pi / LOBES) / (pi * pi);
+    }
+
+    /**
+     * Filters every band in two passes over planar float channels. The source rows of the band are unpacked
+     * once; every target row is then filtered vertically from them at the source width, a loop over whole
+     * rows that the JIT vectorizes, and finally horizontally down to the target width.
+     */
+    private static int[] lanczos(int[] pixels, int sourceWidth, int sourceHeight, int width, int height) {
+        Contributions columns = new Contributions(sourceWidth, width);
+        Contributions rows = new Contributions(sourceHeight, height);
+        int[] target = new int[width * height];
+        inBands(height, (from, to) -> {
+            int firstRow = rows.starts[from];
+            int rowCount = rows.starts[to - 1] + rows.taps - firstRow;
+            float[][] source = new float[3][rowCount * sourceWidth];
+            for (int sy = 0, in = firstRow * sourceWidth, out = 0; sy < rowCount; sy++) {
+                for (int x = 0; x < sourceWidth; x++, in++, out++) {
+                    int rgb = pixels[in];
+                    source[0][out] = rgb >> 16 & 0xFF;
+                    source[1][out] = rgb >> 8 & 0xFF;
+                    source[2][out] = rgb & 0xFF;
+                }
+            }
+            float[] line = new float[sourceWidth];
+            float[][] filtered = new float[3][width];
+            for (int y = from; y < to; y++) {
+                int start = (rows.starts[y] - firstRow) * sourceWidth;
+                int weight = y * rows.taps;
+                for (int channel = 0; channel < 3; channel++) {
+                    float[] plane = source[channel];
+                    Arrays.fill(line, 0);
+                    for (int k = 0, in = start; k < rows.taps; k++, in += sourceWidth) {
+                        float w = rows.weights[weight + k];
+                        for (int x = 0; x < sourceWidth; x++) {
+                            line[x] += w * plane[in + x];
+                        }
+                    }
+                    convolve(line, columns, filtered[channel]);
+                }
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    target[i] = clamp(filtered[0][x]) << 16 | clamp(filtered[1][x]) << 8 | clamp(filtered[2][x]);
+                }
+            }
+        });
+        return target;
+    }
+
+    /**
+     * Filters one line of samples down to the target size of the contributions.
+     */
+    private static void convolve(float[] line, Contributions contributions, float[] out) {
+        int taps = contributions.taps;
+        float[] weights = contributions.weights;
+        for (int t = 0; t < out.length; t++) {
+            int in = contributions.starts[t];
+            int weight = t * taps;
+            float sum = 0;
+            for (int k = 0; k < taps; k++) {
+                sum += weights[weight + k] * line[in + k];
+            }
+            out[t] = sum;
+        }
+    }
+
+    private static int clamp(float value) {
+        int rounded = Math.round(value);
+        return rounded < 0 ? 0 : Math.min(rounded, 255);
+    }
+
+    /**
+     * Work on a range of target rows.
+     */
+    private interface Band {
+        void run(int from, int to);
+    }
+
+    private static void inBands(int height, Band band) {
+        ForkJoinPool.commonPool().invoke(new BandTask(band, 0, height));
+    }
+
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Band band;
+        private final int from;
+        private final int to;
+
+        BandTask(Band band, int from, int to) {
+            this.band = band;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BAND_ROWS) {
+                band.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandTask(band, from, middle), new BandTask(band, middle, to));
+        }
+    }
+}
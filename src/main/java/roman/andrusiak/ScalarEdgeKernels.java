@@ -0,0 +1,38 @@
+package roman.andrusiak;
+
+/**
+ * The ScalarEdgeKernels class implements the edge metric loops in plain Java.
+ */
+public class ScalarEdgeKernels implements EdgeKernels {
+
+    @Override
+    public int countMatches(int[] data1, int index1, int step1, int[] data2, int index2, int step2, int length) {
+        int count = 0;
+        for (int k = 0; k < length; k++, index1 += step1, index2 += step2) {
+            if (data1[index1] == data2[index2]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public float sumSquaredDifferences(float[] a, float[] b, int from, int to) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            float difference = a[k] - b[k];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public float sumSquaredSteps(float[] border, float[] other, float mean, int from, int to) {
+        float sum = 0;
+        for (int k = from; k < to; k++) {
+            float step = other[k] - border[k] - mean;
+            sum += step * step;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,145 @@
+package roman.andrusiak;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The SolveService class runs the Check pipeline off the Swing event dispatch thread.
+ * <p>
+ * At most one check is in flight: a check requested while another one is running returns the running one.
+ * Progress is published on the event dispatch thread as the scoring of the pairs, the placement of the pieces
+ * and the search advance, once per whole percent. A running check can be cancelled, e.g. when the
+ * board changes under it. A cancelled check completes its future with a CancellationException. Every check
+ * and every cancel starts a new generation; progress is only delivered while its check is still the current
+ * generation, so an update queued before a cancel never reaches the listener after it.
+ */
+public class SolveService {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "puzzle-solver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private CompletableFuture<Boolean> current;
+    private Future<?> currentTask;
+    private volatile int generation;
+
+    /**
+     * Receives the progress of a check on the event dispatch thread.
+     */
+    public interface ProgressListener {
+        /**
+         * Called whenever the share of the check that is done grows by a whole percent.
+         *
+         * @param stage   the name of the running stage, one of the {@link Progress} stages or compareArrangements
+         * @param percent the share of the work that is done, from 0 to 100
+         */
+        void onProgress(String stage, int percent);
+    }
+
+    /**
+     * Checks asynchronously whether the pieces are in the order found by the solver.
+     * The array is copied, so the caller may keep swapping its own pieces.
+     *
+     * @param puzzles  the pieces in their current order
+     * @param rows     the number of rows of the puzzle
+     * @param cols     the number of columns of the puzzle
+     * @param listener the listener that receives the progress, or null
+     * @return a future with the result of the check; the future of the running check if there is one
+     */
+    public synchronized CompletableFuture<Boolean> check(Puzzle[] puzzles, int rows, int cols,
+                                                         ProgressListener listener) {
+        if (current != null && !current.isDone()) {
+            return current;
+        }
+        Puzzle[] snapshot = puzzles.clone();
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        int token = ++generation;
+        current = future;
+        currentTask = executor.submit(() -> {
+            try {
+                future.complete(runCheck(snapshot, rows, cols, listener, token));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Cancels the running check, if there is one.
+     */
+    public synchronized void cancel() {
+        generation++;
+        if (current != null && !current.isDone()) {
+            current.cancel(false);
+            currentTask.cancel(true);
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private boolean runCheck(Puzzle[] puzzles, int rows, int cols, ProgressListener listener, int token) {
+        AtomicInteger published = new AtomicInteger();
+        Puzzle[] sorted = ImageManager.sortPuzzle(puzzles, rows, cols, (stage, done, total) ->
+                publish(listener, token, published, stage, percent(stage, done, total)));
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Check cancelled after sortPuzzle");
+        }
+        boolean equal = ImageManager.compareArrangements(puzzles, sorted);
+        publish(listener, token, published, "compareArrangements", 100);
+        return equal;
+    }
+
+    /**
+     * Maps the progress of a stage onto the whole check: the scoring takes most of it, the placement and the
+     * search share the rest, and the comparison finishes it.
+     */
+    private static int percent(String stage, long done, long total) {
+        int from;
+        int to;
+        switch (stage) {
+            case Progress.SCORE:
+                from = 0;
+                to = 80;
+                break;
+            case Progress.PLACE:
+                from = 80;
+                to = 95;
+                break;
+            default:
+                from = 95;
+                to = 99;
+                break;
+        }
+        return from + (int) ((to - from) * done / Math.max(1, total));
+    }
+
+    /**
+     * Publishes a percentage that is larger than the last published one. It may be called from the workers
+     * that score the pairs, so the last percentage is raised atomically.
+     */
+    private void publish(ProgressListener listener, int token, AtomicInteger published, String stage, int percent) {
+        int last = published.get();
+        while (percent > last) {
+            if (published.compareAndSet(last, percent)) {
+                if (listener != null) {
+                    SwingUtilities.invokeLater(() -> {
+                        if (generation == token) {
+                            listener.onProgress(stage, percent);
+                        }
+                    });
+                }
+                return;
+            }
+            last = published.get();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package roman.andrusiak;
+
+/**
+ * The SsdEdgeMetric class scores two borders by the sum of squared per-channel differences of the
+ * touching pixels, divided by the length of the border. Small color deviations, as left by JPEG
+ * compression or scaling, give small scores instead of counting as mismatches.
+ */
+public class SsdEdgeMetric implements EdgeMetric {
+    private final EdgeKernels kernels;
+
+    public SsdEdgeMetric() {
+        this(EdgeKernels.DEFAULT);
+    }
+
+    public SsdEdgeMetric(EdgeKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    @Override
+    public float dissimilarity(EdgeIndex edges, int first, int firstSide, int second, int secondSide) {
+        float[] edge1 = edges.borderChannels(first, firstSide);
+        float[] edge2 = edges.borderChannels(second, secondSide);
+        int length = Math.min(edge1.length, edge2.length);
+        return kernels.sumSquaredDifferences(edge1, edge2, 0, length) / (length / 3);
+    }
+}
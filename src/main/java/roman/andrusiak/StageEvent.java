@@ -0,0 +1,37 @@
+package roman.andrusiak;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The StageEvent class is the Flight Recorder event of one pipeline stage, e.g. splitImage or sortPuzzle.
+ * The duration of the event is the duration of the stage. Events are created by {@link Metrics#stage}.
+ */
+@Name("roman.andrusiak.Stage")
+@Label("Puzzle Stage")
+@Category("Puzzle")
+@Description("One stage of the puzzle pipeline")
+@StackTrace(false)
+public class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Columns")
+    int cols;
+
+    @Label("Pieces")
+    int pieces;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread that ran the stage, or -1 if unknown")
+    @DataAmount
+    long allocatedBytes;
+}
@@ -0,0 +1,87 @@
+package roman.andrusiak;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * The StreamingImageReader class decodes large source images without materializing them at full resolution.
+ * It uses an ImageReader with subsampling, so the decoder only keeps the rows and columns that are actually
+ * needed. The readers registered by jai-imageio (TIFF, BMP, PNM, ...) are picked up the same way as the JDK
+ * ones.
+ */
+public class StreamingImageReader {
+
+    /**
+     * Decodes an image file straight into a downscaled target of the given size with the default resize mode
+     * of {@link ImageManager}.
+     *
+     * @param file   the image file to read
+     * @param width  the width of the target image
+     * @param height the height of the target image
+     * @return a TYPE_INT_RGB image of the given size
+     * @throws IOException if the file cannot be read or no reader supports its format
+     */
+    public static BufferedImage readScaled(File file, int width, int height) throws IOException {
+        return readScaled(file, width, height, ImageManager.RESIZE_MODE);
+    }
+
+    /**
+     * Decodes an image file straight into a downscaled target of the given size.
+     * The decoder skips whole rows and columns by subsampling; the rest of the scaling is done by the
+     * {@link Resizer}. The modes that {@link Resizer.Mode#filters() filter}, which is all but
+     * {@link Resizer.Mode#NEAREST}, keep at least twice the target size, so the filter still sees the detail it
+     * averages; nearest lets the decoder get down to the target size.
+     *
+     * @param file   the image file to read
+     * @param width  the width of the target image
+     * @param height the height of the target image
+     * @param mode   the resize mode of the {@link Resizer}
+     * @return a TYPE_INT_RGB image of the given size
+     * @throws IOException if the file cannot be read or no reader supports its format
+     */
+    public static BufferedImage readScaled(File file, int width, int height, Resizer.Mode mode) throws IOException {
+        try (ImageInputStream stream = openStream(file)) {
+            ImageReader reader = readerFor(stream, file);
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling(reader.getWidth(0), width, mode),
+                        subsampling(reader.getHeight(0), height, mode), 0, 0);
+                return Resizer.resize(reader.read(0, param), width, height, mode);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageInputStream openStream(File file) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(file);
+        if (stream == null) {
+            throw new IOException("Cannot open image file " + file);
+        }
+        return stream;
+    }
+
+    private static ImageReader readerFor(ImageInputStream stream, File file) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader for " + file);
+        }
+        return readers.next();
+    }
+
+    /**
+     * Returns the largest subsampling step that still keeps at least the target number of pixels, or twice
+     * that number for the modes that filter.
+     */
+    private static int subsampling(int sourceSize, int targetSize, Resizer.Mode mode) {
+        int oversampling = mode.filters() ? 2 : 1;
+        return Math.max(1, sourceSize / Math.max(1, targetSize * oversampling));
+    }
+}
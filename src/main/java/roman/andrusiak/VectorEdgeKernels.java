@@ -0,0 +1,72 @@
+package roman.andrusiak;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorEdgeKernels class implements the edge metric loops with the Java Vector API.
+ * Every lane operation handles as many pixels as the preferred species of the CPU holds (8 with AVX2,
+ * 16 with AVX-512); the remaining tail is processed with scalar code.
+ * <p>
+ * This class needs the jdk.incubator.vector module at runtime and is only loaded through {@link EdgeKernels}.
+ */
+class VectorEdgeKernels implements EdgeKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public int countMatches(int[] data1, int index1, int step1, int[] data2, int index2, int step2, int length) {
+        if (step1 != 1 || step2 != 1) {
+            return EdgeKernels.SCALAR.countMatches(data1, index1, step1, data2, index2, step2, length);
+        }
+        int count = 0;
+        int k = 0;
+        for (int bound = INTS.loopBound(length); k < bound; k += INTS.length()) {
+            IntVector a = IntVector.fromArray(INTS, data1, index1 + k);
+            IntVector b = IntVector.fromArray(INTS, data2, index2 + k);
+            count += a.eq(b).trueCount();
+        }
+        for (; k < length; k++) {
+            if (data1[index1 + k] == data2[index2 + k]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public float sumSquaredDifferences(float[] a, float[] b, int from, int to) {
+        FloatVector sums = FloatVector.zero(FLOATS);
+        int k = from;
+        for (int bound = from + FLOATS.loopBound(to - from); k < bound; k += FLOATS.length()) {
+            FloatVector difference = FloatVector.fromArray(FLOATS, a, k).sub(FloatVector.fromArray(FLOATS, b, k));
+            sums = difference.fma(difference, sums);
+        }
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; k < to; k++) {
+            float difference = a[k] - b[k];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public float sumSquaredSteps(float[] border, float[] other, float mean, int from, int to) {
+        FloatVector sums = FloatVector.zero(FLOATS);
+        int k = from;
+        for (int bound = from + FLOATS.loopBound(to - from); k < bound; k += FLOATS.length()) {
+            FloatVector step = FloatVector.fromArray(FLOATS, other, k)
+                    .sub(FloatVector.fromArray(FLOATS, border, k))
+                    .sub(mean);
+            sums = step.fma(step, sums);
+        }
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; k < to; k++) {
+            float step = other[k] - border[k] - mean;
+            sum += step * step;
+        }
+        return sum;
+    }
+}
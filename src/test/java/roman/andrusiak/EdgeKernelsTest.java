@@ -0,0 +1,113 @@
+package roman.andrusiak;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The EdgeKernelsTest class checks the vector edge kernels against the scalar ones on random data.
+ * The lengths cover full vectors, partial tails and arrays shorter than one vector; the counts are also checked
+ * on edges that start at an offset or advance by a stride. Counts must be equal; float sums may differ by
+ * rounding, since the lanes are added in a different order.
+ */
+class EdgeKernelsTest {
+    private static final int ROUNDS = 2000;
+    private static final int MAX_LENGTH = 1300;
+
+    private final EdgeKernels vector = new VectorEdgeKernels();
+    private final EdgeKernels scalar = EdgeKernels.SCALAR;
+
+    @Test
+    void vectorKernelsAreDefault() {
+        assertTrue(EdgeKernels.DEFAULT instanceof VectorEdgeKernels);
+    }
+
+    @Test
+    void countMatchesAgreesWithScalar() {
+        Random random = new Random(1);
+        for (int round = 0; round < ROUNDS; round++) {
+            int length = random.nextInt(MAX_LENGTH);
+            int[] edge1 = new int[length + random.nextInt(4)];
+            int[] edge2 = new int[length + random.nextInt(4)];
+            int values = 1 + random.nextInt(4);
+            for (int k = 0; k < edge1.length; k++) {
+                edge1[k] = random.nextInt(values);
+            }
+            for (int k = 0; k < edge2.length; k++) {
+                edge2[k] = random.nextInt(values);
+            }
+            assertEquals(scalar.countMatches(edge1, edge2, length), vector.countMatches(edge1, edge2, length),
+                    "length " + length);
+        }
+    }
+
+    @Test
+    void countMatchesAtOffsetsAndStridesAgreesWithScalar() {
+        Random random = new Random(4);
+        for (int round = 0; round < ROUNDS; round++) {
+            int length = random.nextInt(MAX_LENGTH / 4);
+            int step1 = random.nextBoolean() ? 1 : 1 + random.nextInt(4);
+            int step2 = random.nextBoolean() ? 1 : 1 + random.nextInt(4);
+            int index1 = random.nextInt(8);
+            int index2 = random.nextInt(8);
+            int[] data1 = new int[index1 + length * step1 + 1];
+            int[] data2 = new int[index2 + length * step2 + 1];
+            int values = 1 + random.nextInt(4);
+            for (int k = 0; k < data1.length; k++) {
+                data1[k] = random.nextInt(values);
+            }
+            for (int k = 0; k < data2.length; k++) {
+                data2[k] = random.nextInt(values);
+            }
+            assertEquals(scalar.countMatches(data1, index1, step1, data2, index2, step2, length),
+                    vector.countMatches(data1, index1, step1, data2, index2, step2, length),
+                    "length " + length + ", steps " + step1 + " and " + step2);
+        }
+    }
+
+    @Test
+    void sumSquaredDifferencesAgreesWithScalar() {
+        Random random = new Random(2);
+        for (int round = 0; round < ROUNDS; round++) {
+            float[] a = randomValues(random);
+            float[] b = randomValues(random, a.length);
+            int from = random.nextInt(a.length + 1);
+            int to = from + random.nextInt(a.length - from + 1);
+            assertClose(scalar.sumSquaredDifferences(a, b, from, to), vector.sumSquaredDifferences(a, b, from, to),
+                    from, to);
+        }
+    }
+
+    @Test
+    void sumSquaredStepsAgreesWithScalar() {
+        Random random = new Random(3);
+        for (int round = 0; round < ROUNDS; round++) {
+            float[] border = randomValues(random);
+            float[] other = randomValues(random, border.length);
+            float mean = random.nextFloat() * 40 - 20;
+            int from = random.nextInt(border.length + 1);
+            int to = from + random.nextInt(border.length - from + 1);
+            assertClose(scalar.sumSquaredSteps(border, other, mean, from, to),
+                    vector.sumSquaredSteps(border, other, mean, from, to), from, to);
+        }
+    }
+
+    private static float[] randomValues(Random random) {
+        return randomValues(random, random.nextInt(MAX_LENGTH));
+    }
+
+    private static float[] randomValues(Random random, int length) {
+        float[] values = new float[length];
+        for (int k = 0; k < length; k++) {
+            values[k] = random.nextInt(256) + (random.nextBoolean() ? random.nextFloat() : 0f);
+        }
+        return values;
+    }
+
+    private static void assertClose(float expected, float actual, int from, int to) {
+        assertEquals(expected, actual, 1e-4f * Math.max(1f, Math.abs(expected)), "range " + from + ".." + to);
+    }
+}
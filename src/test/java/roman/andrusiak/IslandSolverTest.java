@@ -0,0 +1,53 @@
+package roman.andrusiak;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The IslandSolverTest class checks the determinism the {@link IslandSolver} documents: with the same seed,
+ * a generation limit and no time budget, two runs on several islands return the same placement, which is
+ * never worse than the greedy one it starts from.
+ */
+class IslandSolverTest {
+    private static final int ROWS = 6;
+    private static final int COLS = 6;
+
+    @Test
+    void sameSeedAndGenerationLimitGiveTheSamePlacement() {
+        CompatibilityMatrix matrix = noisyMatrix();
+        int[] greedy = new PuzzleSolver(matrix, ROWS, COLS).solve();
+        int[] first = new IslandSolver(matrix, ROWS, COLS, 3, 7, Long.MAX_VALUE, 60).solve();
+        int[] second = new IslandSolver(matrix, ROWS, COLS, 3, 7, Long.MAX_VALUE, 60).solve();
+        assertArrayEquals(first, second);
+        IslandSolver solver = new IslandSolver(matrix, ROWS, COLS, 3, 7, Long.MAX_VALUE, 60);
+        assertTrue(solver.fitness(first) <= solver.fitness(greedy));
+    }
+
+    /**
+     * Scores the pieces of a smooth image under heavy noise, so the edges are ambiguous and the search has
+     * something to improve.
+     */
+    private static CompatibilityMatrix noisyMatrix() {
+        BufferedImage image = new BufferedImage(COLS * 16, ROWS * 16, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int noise = random.nextInt(96);
+                image.setRGB(x, y, (x + noise) % 256 << 16 | (y + noise) % 256 << 8 | noise);
+            }
+        }
+        BufferedImage[] pieces = ImageManager.splitImage(image, ROWS, COLS);
+        Puzzle[] puzzles = new Puzzle[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            puzzles[i] = new Puzzle(pieces[i], i);
+        }
+        CompatibilityMatrix matrix = new CompatibilityMatrix(new EdgeIndex(puzzles), EdgeMetric.GRADIENT);
+        matrix.normalizeBySecondBest();
+        return matrix;
+    }
+}
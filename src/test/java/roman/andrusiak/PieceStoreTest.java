@@ -0,0 +1,89 @@
+package roman.andrusiak;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The PieceStoreTest class writes random pieces to a store and checks what opening it gives back:
+ * the same pixels in TYPE_INT_RGB pieces that are accessed in place, the same edge strips and the same scores.
+ * A file that is cut short, or that is not a store at all, must fail to open with an IOException.
+ */
+class PieceStoreTest {
+    private static final int ROWS = 3;
+    private static final int COLS = 4;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void storedPiecesEdgesAndScoresRoundTrip() throws IOException {
+        BufferedImage[] pieces = randomPieces();
+        Puzzle[] originals = new Puzzle[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            originals[i] = new Puzzle(pieces[i], i);
+        }
+        EdgeIndex edges = new EdgeIndex(originals);
+        CompatibilityMatrix matrix = new CompatibilityMatrix(edges, EdgeMetric.GRADIENT);
+        File file = new File(directory, "pieces.bin");
+        PieceStore.write(file, pieces, ROWS, COLS, matrix);
+
+        PieceStore store = PieceStore.open(file);
+        Puzzle[] puzzles = store.puzzles();
+        EdgeIndex stored = store.edgeIndex();
+        CompatibilityMatrix storedMatrix = store.matrix();
+        assertEquals(pieces.length, puzzles.length);
+        for (int i = 0; i < puzzles.length; i++) {
+            BufferedImage piece = puzzles[i].getImage();
+            assertEquals(BufferedImage.TYPE_INT_RGB, piece.getType());
+            assertSame(piece, IntRaster.of(piece).getImage());
+            assertEquals(originals[i].getContentHash(), puzzles[i].getContentHash());
+            for (int side = 0; side < 4; side++) {
+                assertArrayEquals(edges.border(i, side), stored.border(i, side));
+                assertArrayEquals(edges.inner(i, side), stored.inner(i, side));
+            }
+            for (int j = 0; j < puzzles.length; j++) {
+                assertEquals(matrix.horizontal(i, j), storedMatrix.horizontal(i, j));
+                assertEquals(matrix.vertical(i, j), storedMatrix.vertical(i, j));
+            }
+        }
+    }
+
+    @Test
+    void truncatedOrForeignFilesAreRejected() throws IOException {
+        File file = new File(directory, "pieces.bin");
+        PieceStore.write(file, randomPieces(), ROWS, COLS, null);
+        long length = file.length();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length - 4);
+            assertThrows(IOException.class, () -> PieceStore.open(file));
+            out.setLength(length);
+            assertEquals(ROWS * COLS, PieceStore.open(file).size());
+            out.writeInt(0);
+            assertThrows(IOException.class, () -> PieceStore.open(file));
+            out.setLength(3);
+            assertThrows(IOException.class, () -> PieceStore.open(file));
+        }
+    }
+
+    private static BufferedImage[] randomPieces() {
+        BufferedImage image = new BufferedImage(COLS * 12, ROWS * 10, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return ImageManager.splitImage(image, ROWS, COLS);
+    }
+}
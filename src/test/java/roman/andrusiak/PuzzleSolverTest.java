@@ -0,0 +1,46 @@
+package roman.andrusiak;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * The PuzzleSolverTest class checks that the greedy solver restores a shuffled image with clear edges, and that
+ * a second run of the same solver starts from an empty grid and returns the same placement.
+ */
+class PuzzleSolverTest {
+    private static final int ROWS = 5;
+    private static final int COLS = 7;
+
+    @Test
+    void solvingTwiceRestoresTheImageBothTimes() {
+        BufferedImage image = new BufferedImage(COLS * 12, ROWS * 12, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x * 3 << 16 | y * 4 << 8 | (x * y) % 256);
+            }
+        }
+        BufferedImage[] pieces = ImageManager.splitImage(image, ROWS, COLS);
+        int[] order = new int[pieces.length];
+        Random random = new Random(1);
+        for (int i = 0; i < order.length; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        Puzzle[] puzzles = new Puzzle[pieces.length];
+        int[] expected = new int[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            puzzles[i] = new Puzzle(pieces[order[i]], order[i]);
+            expected[order[i]] = i;
+        }
+        CompatibilityMatrix matrix = new CompatibilityMatrix(new EdgeIndex(puzzles), EdgeMetric.GRADIENT);
+        matrix.normalizeBySecondBest();
+        PuzzleSolver solver = new PuzzleSolver(matrix, ROWS, COLS);
+        assertArrayEquals(expected, solver.solve());
+        assertArrayEquals(expected, solver.solve());
+    }
+}
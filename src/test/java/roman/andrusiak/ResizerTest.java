@@ -0,0 +1,89 @@
+package roman.andrusiak;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The ResizerTest class checks the box filter against a plain average of the source pixels under every target
+ * pixel, for scale factors on both sides of two, and checks that a TYPE_3BYTE_BGR image, as the JPEG decoder
+ * produces it, is scaled to the same pixels as its TYPE_INT_RGB copy.
+ */
+class ResizerTest {
+    private static final int ROUNDS = 300;
+
+    @Test
+    void boxAveragesThePixelsUnderEveryTargetPixel() {
+        Random random = new Random(1);
+        for (int round = 0; round < ROUNDS; round++) {
+            int sourceWidth = 1 + random.nextInt(60);
+            int sourceHeight = 1 + random.nextInt(60);
+            int width = 1 + random.nextInt(sourceWidth + 10);
+            int height = 1 + random.nextInt(sourceHeight + 10);
+            int[] pixels = randomPixels(random, sourceWidth * sourceHeight);
+            int[] scaled = Resizer.resize(pixels, sourceWidth, sourceHeight, width, height, Resizer.Mode.BOX);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int expected = average(pixels, sourceWidth, sourceHeight, width, height, x, y);
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int difference = (expected >> shift & 0xFF) - (scaled[y * width + x] >> shift & 0xFF);
+                        assertTrue(Math.abs(difference) <= 1, sourceWidth + "x" + sourceHeight + " to "
+                                + width + "x" + height + " at " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void bgrImagesScaleLikeTheirIntCopies() {
+        Random random = new Random(2);
+        for (Resizer.Mode mode : Resizer.Mode.values()) {
+            for (int round = 0; round < 20; round++) {
+                int sourceWidth = 8 + random.nextInt(120);
+                int sourceHeight = 8 + random.nextInt(120);
+                int width = 1 + random.nextInt(sourceWidth);
+                int height = 1 + random.nextInt(sourceHeight);
+                BufferedImage bgr = new BufferedImage(sourceWidth, sourceHeight, BufferedImage.TYPE_3BYTE_BGR);
+                int[] pixels = randomPixels(random, sourceWidth * sourceHeight);
+                bgr.setRGB(0, 0, sourceWidth, sourceHeight, pixels, 0, sourceWidth);
+                BufferedImage scaled = Resizer.resize(bgr, width, height, mode);
+                assertEquals(BufferedImage.TYPE_INT_RGB, scaled.getType());
+                assertArrayEquals(Resizer.resize(pixels, sourceWidth, sourceHeight, width, height, mode),
+                        IntRaster.of(scaled).getData(), mode + " " + sourceWidth + "x" + sourceHeight);
+            }
+        }
+    }
+
+    private static int average(int[] pixels, int sourceWidth, int sourceHeight, int width, int height, int x, int y) {
+        int left = (int) ((long) x * sourceWidth / width);
+        int right = Math.max(left + 1, (int) ((long) (x + 1) * sourceWidth / width));
+        int top = (int) ((long) y * sourceHeight / height);
+        int bottom = Math.max(top + 1, (int) ((long) (y + 1) * sourceHeight / height));
+        int area = (right - left) * (bottom - top);
+        int result = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int sum = 0;
+            for (int sy = top; sy < bottom; sy++) {
+                for (int sx = left; sx < right; sx++) {
+                    sum += pixels[sy * sourceWidth + sx] >> shift & 0xFF;
+                }
+            }
+            result |= (sum + area / 2) / area << shift;
+        }
+        return result;
+    }
+
+    private static int[] randomPixels(Random random, int length) {
+        int[] pixels = new int[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = random.nextInt(1 << 24);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,194 @@
+package roman.andrusiak;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The ServerLoadTest class load-tests a {@link PuzzleServer} on the local machine.
+ * <p>
+ * It starts a server on a free port and runs a number of simulated players on a fixed pool of client threads.
+ * Every player creates a session for the same image, fetches a few tiles, makes a number of swaps and checks
+ * the board; the sessions are kept open until all players are done, so the heap then holds all of them.
+ * The result is one JSON line with the throughput, the heap used per open session and the latency
+ * histograms of every endpoint as seen by the server.
+ * Usage: {@code ServerLoadTest <imageDirectory> <image> [players] [swaps] [clientThreads] [rows] [cols]},
+ * run with the test classpath. As a JUnit test it runs a short load on a generated image instead.
+ */
+class ServerLoadTest {
+    private static final Pattern SESSION_ID = Pattern.compile("\"id\":\"([^\"]+)\"");
+    private static final int TILE_FETCHES = 4;
+
+    @TempDir
+    File imageDirectory;
+
+    @Test
+    void sessionsShareOneSourceUntilTheLastIsDeleted() throws IOException, InterruptedException {
+        writeImage(imageDirectory, "random.png");
+        try (PuzzleServer server = new PuzzleServer(0, imageDirectory, new ImageCache(64L << 20, null),
+                PuzzleServer.DEFAULT_IDLE_MILLIS)) {
+            Result result = load(server, "random.png", 20, 5, 4, 4, 4);
+            assertEquals(0, result.failures.get());
+            assertEquals(21, server.getSessionCount());
+            assertEquals(1, server.getSourceCount());
+
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://localhost:" + server.getPort() + "/sessions";
+            for (String id : result.sessionIds) {
+                send(client, "DELETE", base + "/" + id);
+            }
+            assertEquals(0, server.getSessionCount());
+            assertEquals(0, server.getSourceCount());
+        }
+    }
+
+    private static void writeImage(File directory, String name) throws IOException {
+        BufferedImage image = new BufferedImage(320, 256, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        ImageIO.write(image, "png", new File(directory, name));
+    }
+
+    /**
+     * The outcome of one load run.
+     */
+    private static class Result {
+        private final Queue<String> sessionIds = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private long nanos;
+        private long heapPerSession;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ServerLoadTest <imageDirectory> <image> [players] [swaps] [clientThreads] [rows] [cols]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        int players = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int swaps = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+        int rows = args.length > 5 ? Integer.parseInt(args[5]) : ImageManager.ROWS;
+        int cols = args.length > 6 ? Integer.parseInt(args[6]) : ImageManager.COLS;
+
+        Metrics.reset();
+        try (PuzzleServer server = new PuzzleServer(0, new File(args[0]), new ImageCache(256L << 20, null),
+                PuzzleServer.DEFAULT_IDLE_MILLIS)) {
+            Result result = load(server, args[1], players, swaps, threads, rows, cols);
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"players\":%d,\"swaps\":%d,\"clientThreads\":%d,\"requests\":%d,\"failures\":%d,"
+                            + "\"seconds\":%.3f,\"requestsPerSecond\":%.1f,\"openSessions\":%d,\"sources\":%d,"
+                            + "\"heapBytesPerSession\":%d,\"server\":%s}",
+                    players, swaps, threads, result.requests.get(), result.failures.get(), result.nanos / 1e9,
+                    result.requests.get() / (result.nanos / 1e9), server.getSessionCount(), server.getSourceCount(),
+                    result.heapPerSession, Metrics.toJson()));
+        }
+    }
+
+    /**
+     * Runs the simulated players against a running server and leaves their sessions open.
+     */
+    private static Result load(PuzzleServer server, String imageName, int players, int swaps, int threads,
+                               int rows, int cols) throws IOException, InterruptedException {
+        String image = URLEncoder.encode(imageName, StandardCharsets.UTF_8);
+        String base = "http://localhost:" + server.getPort() + "/sessions";
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        Result result = new Result();
+
+        // one session first, so the split is not timed as part of the load
+        result.sessionIds.add(sessionId(send(client, "POST", base + "?image=" + image + "&rows=" + rows
+                + "&cols=" + cols)));
+        System.gc();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int p = 0; p < players; p++) {
+            long seed = p;
+            clients.execute(() -> {
+                try {
+                    play(client, base, image, rows, cols, swaps, new Random(seed), result);
+                } catch (IOException | RuntimeException e) {
+                    result.failures.incrementAndGet();
+                    System.err.println("Problem with player " + seed + ": " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.HOURS);
+        result.nanos = System.nanoTime() - start;
+        System.gc();
+        result.heapPerSession = (usedHeap() - heapBefore) / Math.max(1, players);
+        return result;
+    }
+
+    private static void play(HttpClient client, String base, String image, int rows, int cols, int swaps,
+                             Random random, Result result) throws IOException, InterruptedException {
+        String id = sessionId(send(client, "POST", base + "?image=" + image + "&rows=" + rows + "&cols=" + cols
+                + "&seed=" + random.nextInt()));
+        result.sessionIds.add(id);
+        String session = base + "/" + id;
+        int pieces = rows * cols;
+        for (int t = 0; t < TILE_FETCHES; t++) {
+            send(client, "GET", session + "/tiles/" + random.nextInt(pieces));
+        }
+        for (int s = 0; s < swaps; s++) {
+            send(client, "POST", session + "/swap?first=" + random.nextInt(pieces) + "&second=" + random.nextInt(pieces));
+        }
+        send(client, "GET", session + "/check");
+        result.requests.addAndGet(2 + TILE_FETCHES + swaps);
+    }
+
+    private static String sessionId(String created) throws IOException {
+        Matcher matcher = SESSION_ID.matcher(created);
+        if (!matcher.find()) {
+            throw new IOException("No session in " + created);
+        }
+        return matcher.group(1);
+    }
+
+    private static String send(HttpClient client, String method, String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() >= 400) {
+            throw new IOException(method + " " + uri + " answered " + response.statusCode());
+        }
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}